@@ -0,0 +1,108 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * View of a range of ASCII bytes in a buffer as a sequence of
+ * characters. The view is moved from line to line, so no text is
+ * copied until a token is extracted.
+ */
+final class AsciiSequence implements CharSequence {
+
+    /**
+     * Underlying buffer.
+     */
+    final ByteBuffer buffer;
+
+    /**
+     * Offset of the first character in the buffer.
+     */
+    int offset;
+
+    /**
+     * Number of characters.
+     */
+    int length;
+
+    /**
+     * Buffer into which a direct buffer is copied when a string is
+     * extracted.
+     */
+    byte[] bytes;
+
+    /**
+     * Creates an empty view of the given buffer.
+     *
+     * @param buffer Underlying buffer.
+     */
+    AsciiSequence(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.offset = 0;
+        this.length = 0;
+        this.bytes = new byte[0];
+    }
+
+    /**
+     * Moves this view to the given range of the buffer.
+     *
+     * @param start Start offset in the buffer.
+     * @param end End offset (exclusive) in the buffer.
+     * @return This view.
+     */
+    AsciiSequence set(final int start, final int end) {
+        this.offset = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the given range of this view as a string, which is
+     * copied directly from the buffer if it is backed by an array.
+     *
+     * @param start Start index.
+     * @param end End index (exclusive).
+     * @return String holding the range.
+     */
+    String substring(final int start, final int end) {
+        final int n = end - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(),
+                              buffer.arrayOffset() + offset + start,
+                              n,
+                              StandardCharsets.ISO_8859_1);
+        } else {
+            if (bytes.length < n) {
+                bytes = new byte[Math.max(n, 2 * bytes.length)];
+            }
+            buffer.get(offset + start, bytes, 0, n);
+            return new String(bytes, 0, n, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        return substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length);
+    }
+}
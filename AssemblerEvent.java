@@ -0,0 +1,132 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event spanning a phase of the assembler. The sizes
+ * of the program are only filled in if the event is recorded, so an
+ * event costs next to nothing when recording is off.
+ */
+@Category("NAS")
+@StackTrace(false)
+abstract class AssemblerEvent extends Event {
+
+    /**
+     * Label of the program, e.g., the filename.
+     */
+    @Label("Program")
+    String program;
+
+    /**
+     * Number of source lines.
+     */
+    @Label("Lines")
+    int lines;
+
+    /**
+     * Number of instructions.
+     */
+    @Label("Instructions")
+    int instructions;
+
+    /**
+     * Number of symbols.
+     */
+    @Label("Symbols")
+    int symbols;
+
+    /**
+     * Number of errors.
+     */
+    @Label("Errors")
+    int errors;
+
+    /**
+     * Ends the event and commits it with the sizes of the given
+     * program if it is recorded.
+     *
+     * @param intermediateFormat Parsing results.
+     */
+    void commit(final IntermediateFormat intermediateFormat) {
+        end();
+        if (shouldCommit()) {
+            program = intermediateFormat.label;
+            lines = intermediateFormat.lines.size();
+            instructions = intermediateFormat.instructionList.size();
+            symbols = intermediateFormat.symbolTable.symbols.size();
+            errors = intermediateFormat.getNoErrors();
+            commit();
+        }
+    }
+
+    /**
+     * Parsing of a program.
+     */
+    @Name("se.kth.csc.nas.Parse")
+    @Label("Parse")
+    @Description("Tokenizing and parsing of a program")
+    static class ParseEvent extends AssemblerEvent {
+    }
+
+    /**
+     * Relocation of the symbols of a program.
+     */
+    @Name("se.kth.csc.nas.RelocateSymbols")
+    @Label("Relocate Symbols")
+    @Description("Assignment of addresses to words and code directives")
+    static class RelocateSymbolsEvent extends AssemblerEvent {
+    }
+
+    /**
+     * Relocation of the instructions of a program.
+     */
+    @Name("se.kth.csc.nas.RelocateInstructions")
+    @Label("Relocate Instructions")
+    @Description("Resolution of symbolic values of instructions")
+    static class RelocateInstructionsEvent extends AssemblerEvent {
+    }
+
+    /**
+     * Generation of an executable, including relocation.
+     */
+    @Name("se.kth.csc.nas.GenerateBinary")
+    @Label("Generate Binary")
+    @Description("Relocation and writing of an executable")
+    static class GenerateBinaryEvent extends AssemblerEvent {
+
+        /**
+         * Length of the executable in characters, or zero if none was
+         * generated.
+         */
+        @Label("Executable Size")
+        @DataAmount
+        int executableSize;
+    }
+
+    /**
+     * Rendering of an error report.
+     */
+    @Name("se.kth.csc.nas.RenderErrors")
+    @Label("Render Errors")
+    @Description("Formatting of the error report of a program")
+    static class RenderErrorsEvent extends AssemblerEvent {
+
+        /**
+         * Length of the report in characters.
+         */
+        @Label("Report Length")
+        int reportLength;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+/**
+ * Time spent in each phase and sizes of a single assembly. An
+ * instance is filled in by the assembler if it is given one, and is
+ * then typically added to {@link AssemblyStatistics}.
+ */
+public final class AssemblyMetrics {
+
+    /**
+     * Phases of the assembler.
+     */
+    public enum Phase {
+
+        /**
+         * Splitting lines into tokens.
+         */
+        TOKENIZE("tokenize"),
+
+        /**
+         * Parsing tokens into instructions and symbols, excluding
+         * tokenizing.
+         */
+        PARSE("parse"),
+
+        /**
+         * Relocating symbols and instructions.
+         */
+        RELOCATE("relocate"),
+
+        /**
+         * Writing the executable.
+         */
+        EMIT("emit"),
+
+        /**
+         * Rendering the error report.
+         */
+        RENDER("render");
+
+        /**
+         * Name used in reports.
+         */
+        final String name;
+
+        /**
+         * Creates a phase.
+         *
+         * @param name Name used in reports.
+         */
+        Phase(final String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Phases indexed by their ordinals.
+     */
+    final static Phase[] PHASES = Phase.values();
+
+    /**
+     * Nanoseconds spent in each phase indexed by ordinal.
+     */
+    final long[] nanos = new long[PHASES.length];
+
+    /**
+     * Indicates that the result was found in a cache, in which case
+     * no phase was executed.
+     */
+    boolean cached;
+
+    /**
+     * Number of source lines.
+     */
+    int lines;
+
+    /**
+     * Number of instructions.
+     */
+    int instructions;
+
+    /**
+     * Number of symbols, i.e., labels, words, and code directives.
+     */
+    int symbols;
+
+    /**
+     * Number of errors.
+     */
+    int errors;
+
+    /**
+     * Number of bytes of output, i.e., of the executable file.
+     */
+    int outputBytes;
+
+    /**
+     * Number of bytes of code and data removed by optimization.
+     */
+    int bytesSaved;
+
+    /**
+     * Number of instructions removed by optimization, i.e., the
+     * number of cycles saved each time the removed code would have
+     * been executed once.
+     */
+    int cyclesSaved;
+
+    /**
+     * Adds time spent in a phase.
+     *
+     * @param phase Phase.
+     * @param nanos Nanoseconds spent.
+     */
+    void add(final Phase phase, final long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * Returns the nanoseconds spent in a phase.
+     *
+     * @param phase Phase.
+     * @return Nanoseconds spent.
+     */
+    public long getNanos(final Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns true if the result was found in a cache.
+     *
+     * @return True if the result was found in a cache.
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Returns the number of source lines.
+     *
+     * @return Number of source lines.
+     */
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the number of instructions.
+     *
+     * @return Number of instructions.
+     */
+    public int getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the number of symbols.
+     *
+     * @return Number of symbols.
+     */
+    public int getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the number of errors.
+     *
+     * @return Number of errors.
+     */
+    public int getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of bytes of output.
+     *
+     * @return Number of bytes of output.
+     */
+    public int getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * Returns the number of bytes removed by optimization.
+     *
+     * @return Number of bytes removed.
+     */
+    public int getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Returns the number of instructions removed by optimization.
+     *
+     * @return Number of cycles saved per execution of the removed
+     * code.
+     */
+    public int getCyclesSaved() {
+        return cyclesSaved;
+    }
+
+    /**
+     * Records the sizes of the given parsing results.
+     *
+     * @param intermediateFormat Parsing results.
+     */
+    void count(final IntermediateFormat intermediateFormat) {
+        lines = intermediateFormat.lines.size();
+        instructions = intermediateFormat.instructionList.size();
+        symbols = intermediateFormat.symbolTable.symbols.size();
+        errors = intermediateFormat.getNoErrors();
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import se.kth.csc.nas.AssemblyMetrics.Phase;
+
+/**
+ * Aggregate of the metrics of many assemblies, which may be added
+ * concurrently. The statistics can be registered as an MBean to make
+ * them readable through JMX.
+ */
+public final class AssemblyStatistics implements AssemblyStatisticsMBean {
+
+    /**
+     * Domain of the names of registered statistics.
+     */
+    final static String DOMAIN = "se.kth.csc.nas";
+
+    /**
+     * Number of assemblies.
+     */
+    final LongAdder assemblies = new LongAdder();
+
+    /**
+     * Number of assemblies found in a cache.
+     */
+    final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * Nanoseconds spent in each phase indexed by ordinal.
+     */
+    final LongAdder[] nanos = new LongAdder[AssemblyMetrics.PHASES.length];
+
+    /**
+     * Number of source lines.
+     */
+    final LongAdder lines = new LongAdder();
+
+    /**
+     * Number of instructions.
+     */
+    final LongAdder instructions = new LongAdder();
+
+    /**
+     * Number of symbols.
+     */
+    final LongAdder symbols = new LongAdder();
+
+    /**
+     * Number of errors.
+     */
+    final LongAdder errors = new LongAdder();
+
+    /**
+     * Number of bytes of output.
+     */
+    final LongAdder outputBytes = new LongAdder();
+
+    /**
+     * Name under which the statistics are registered, or null.
+     */
+    ObjectName objectName;
+
+    /**
+     * Creates empty statistics.
+     */
+    public AssemblyStatistics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the metrics of an assembly.
+     *
+     * @param metrics Metrics of an assembly.
+     */
+    public void add(final AssemblyMetrics metrics) {
+        assemblies.increment();
+        if (metrics.cached) {
+            cacheHits.increment();
+        }
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i].add(metrics.nanos[i]);
+        }
+        lines.add(metrics.lines);
+        instructions.add(metrics.instructions);
+        symbols.add(metrics.symbols);
+        errors.add(metrics.errors);
+        outputBytes.add(metrics.outputBytes);
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under
+     * the given name. Failures are ignored, since the statistics are
+     * only used for diagnostics.
+     *
+     * @param name Value of the name key of the object name.
+     */
+    public void register(final String name) {
+        try {
+            final ObjectName on =
+                new ObjectName(DOMAIN + ":type=AssemblyStatistics,name="
+                               + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        } catch (final JMException jme) {
+        }
+    }
+
+    /**
+     * Unregisters the statistics if they are registered.
+     */
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                final MBeanServer mbs =
+                    ManagementFactory.getPlatformMBeanServer();
+                mbs.unregisterMBean(objectName);
+            } catch (final JMException jme) {
+            }
+            objectName = null;
+        }
+    }
+
+    public long getAssemblies() {
+        return assemblies.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns the nanoseconds spent in a phase.
+     *
+     * @param phase Phase.
+     * @return Nanoseconds spent.
+     */
+    public long getNanos(final Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    public long getTokenizeNanos() {
+        return getNanos(Phase.TOKENIZE);
+    }
+
+    public long getParseNanos() {
+        return getNanos(Phase.PARSE);
+    }
+
+    public long getRelocateNanos() {
+        return getNanos(Phase.RELOCATE);
+    }
+
+    public long getEmitNanos() {
+        return getNanos(Phase.EMIT);
+    }
+
+    public long getRenderNanos() {
+        return getNanos(Phase.RENDER);
+    }
+
+    public long getLines() {
+        return lines.sum();
+    }
+
+    public long getInstructions() {
+        return instructions.sum();
+    }
+
+    public long getSymbols() {
+        return symbols.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    public String getReport() {
+        final StringBuilder sb = new StringBuilder();
+
+        long total = 0;
+        for (final Phase phase : AssemblyMetrics.PHASES) {
+            total += getNanos(phase);
+        }
+
+        sb.append(String.format("%-10s %12s %7s\n", "Phase", "ms", "share"));
+        for (final Phase phase : AssemblyMetrics.PHASES) {
+            final long n = getNanos(phase);
+            sb.append(String.format("%-10s %12.3f %6.1f%%\n",
+                                    phase.name, n / 1e6,
+                                    total > 0 ? 100.0 * n / total : 0.0));
+        }
+        sb.append(String.format("%-10s %12.3f\n", "total", total / 1e6));
+
+        final long a = getAssemblies();
+        sb.append(String.format("%d assembl%s (%d cached), %d lines, "
+                                + "%d instructions, %d symbols, %d errors, "
+                                + "%d output bytes",
+                                a, a == 1 ? "y" : "ies", getCacheHits(),
+                                getLines(), getInstructions(), getSymbols(),
+                                getErrors(), getOutputBytes()));
+        return sb.toString();
+    }
+
+    public void reset() {
+        assemblies.reset();
+        cacheHits.reset();
+        for (final LongAdder n : nanos) {
+            n.reset();
+        }
+        lines.reset();
+        instructions.reset();
+        symbols.reset();
+        errors.reset();
+        outputBytes.reset();
+    }
+}
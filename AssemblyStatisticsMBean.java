@@ -0,0 +1,109 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+/**
+ * Management interface of {@link AssemblyStatistics}.
+ */
+public interface AssemblyStatisticsMBean {
+
+    /**
+     * Returns the number of assemblies.
+     *
+     * @return Number of assemblies.
+     */
+    long getAssemblies();
+
+    /**
+     * Returns the number of assemblies found in a cache.
+     *
+     * @return Number of assemblies found in a cache.
+     */
+    long getCacheHits();
+
+    /**
+     * Returns the nanoseconds spent tokenizing.
+     *
+     * @return Nanoseconds spent tokenizing.
+     */
+    long getTokenizeNanos();
+
+    /**
+     * Returns the nanoseconds spent parsing, excluding tokenizing.
+     *
+     * @return Nanoseconds spent parsing.
+     */
+    long getParseNanos();
+
+    /**
+     * Returns the nanoseconds spent relocating.
+     *
+     * @return Nanoseconds spent relocating.
+     */
+    long getRelocateNanos();
+
+    /**
+     * Returns the nanoseconds spent writing executables.
+     *
+     * @return Nanoseconds spent writing executables.
+     */
+    long getEmitNanos();
+
+    /**
+     * Returns the nanoseconds spent rendering error reports.
+     *
+     * @return Nanoseconds spent rendering error reports.
+     */
+    long getRenderNanos();
+
+    /**
+     * Returns the number of source lines.
+     *
+     * @return Number of source lines.
+     */
+    long getLines();
+
+    /**
+     * Returns the number of instructions.
+     *
+     * @return Number of instructions.
+     */
+    long getInstructions();
+
+    /**
+     * Returns the number of symbols.
+     *
+     * @return Number of symbols.
+     */
+    long getSymbols();
+
+    /**
+     * Returns the number of errors.
+     *
+     * @return Number of errors.
+     */
+    long getErrors();
+
+    /**
+     * Returns the number of bytes of output.
+     *
+     * @return Number of bytes of output.
+     */
+    long getOutputBytes();
+
+    /**
+     * Returns a text report of the statistics.
+     *
+     * @return Text report.
+     */
+    String getReport();
+
+    /**
+     * Resets all statistics to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Assembles many source files in one process. The files are
+ * assembled in parallel on a fork-join pool, but the error output of
+ * each file is written in input order.
+ */
+final class Batch {
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Batch() {
+    }
+
+    /**
+     * Result of assembling a single file.
+     */
+    static final class Result {
+
+        /**
+         * Name of the source file.
+         */
+        final String inputFilename;
+
+        /**
+         * Error output or the empty string if there were no errors.
+         */
+        final String errors;
+
+        /**
+         * Metrics of assembling the file.
+         */
+        final AssemblyMetrics metrics;
+
+        /**
+         * Creates the result of assembling a file.
+         *
+         * @param inputFilename Name of the source file.
+         * @param errors Error output.
+         * @param metrics Metrics of assembling the file.
+         */
+        Result(final String inputFilename,
+               final String errors,
+               final AssemblyMetrics metrics) {
+            this.inputFilename = inputFilename;
+            this.errors = errors;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * Returns the source files to assemble. If the path is a
+     * directory, then all files ending with ".as" in it are returned
+     * in lexicographical order. Otherwise the path is read as a list
+     * of filenames, one per line, and blank lines are ignored.
+     *
+     * @param path Directory or list of filenames.
+     * @return Names of source files.
+     * @throws IOException If the directory or file list could not be
+     * read.
+     */
+    static List<String> inputFilenames(final String path)
+        throws IOException {
+        final Path p = Paths.get(path);
+        final List<String> filenames = new ArrayList<String>();
+
+        if (Files.isDirectory(p)) {
+            try (DirectoryStream<Path> ds =
+                     Files.newDirectoryStream(p, "*.as")) {
+                for (final Path source : ds) {
+                    if (Files.isRegularFile(source)) {
+                        filenames.add(source.toString());
+                    }
+                }
+            }
+            Collections.sort(filenames);
+        } else {
+            for (final String line :
+                     Files.readAllLines(p, StandardCharsets.UTF_8)) {
+                final String filename = line.trim();
+                if (!filename.equals("")) {
+                    filenames.add(filename);
+                }
+            }
+        }
+        return filenames;
+    }
+
+    /**
+     * Assembles a single file and captures its error output. Any
+     * exception or error thrown while assembling is reported as the
+     * error output of the file, so it does not abort the batch.
+     *
+     * @param inputFilename Name of the source file.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param format Format of the executable file.
+     * @param cache Cache of executables or null.
+     * @return Result of assembling the file.
+     */
+    static Result assemble(final String inputFilename,
+                           final int maxErrors,
+                           final OutputFormat format,
+                           final ExecutableCache cache) {
+        final AssemblyMetrics metrics = new AssemblyMetrics();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            final PrintStream ps =
+                new PrintStream(baos, true, StandardCharsets.UTF_8.name());
+            NAS.assemble(inputFilename, maxErrors, format, ps, cache, metrics);
+            ps.flush();
+            return new Result(inputFilename,
+                              baos.toString(StandardCharsets.UTF_8.name()),
+                              metrics);
+        } catch (final UnsupportedEncodingException uee) {
+            throw new NASError("UTF-8 is not supported!", uee);
+        } catch (final IOException ioe) {
+            final String e =
+                String.format("Unable to read or write file! (%s)",
+                              inputFilename);
+            return new Result(inputFilename, e, metrics);
+        } catch (final RuntimeException re) {
+            return new Result(inputFilename, failure(inputFilename, re),
+                              metrics);
+        } catch (final Error err) {
+            return new Result(inputFilename, failure(inputFilename, err),
+                              metrics);
+        }
+    }
+
+    /**
+     * Returns the error output of a file whose assembly was aborted.
+     *
+     * @param inputFilename Name of the source file or null.
+     * @param throwable Cause of the abort.
+     * @return Error output.
+     */
+    static String failure(final String inputFilename,
+                          final Throwable throwable) {
+        if (inputFilename == null) {
+            return String.format("Unable to assemble file! (%s)", throwable);
+        } else {
+            return String.format("Unable to assemble file! (%s: %s)",
+                                 inputFilename, throwable);
+        }
+    }
+
+    /**
+     * Assembles the given files in parallel and writes the error
+     * output of each file in input order followed by a summary and a
+     * report of the time spent in each phase. The statistics are
+     * readable through JMX while the batch runs.
+     *
+     * @param inputFilenames Names of source files.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param format Format of the executable files.
+     * @param cache Cache of executables or null.
+     * @param out Destination of error output and summary.
+     * @return Number of files with errors.
+     */
+    static int assemble(final List<String> inputFilenames,
+                        final int maxErrors,
+                        final OutputFormat format,
+                        final ExecutableCache cache,
+                        final PrintStream out) {
+
+        final long start = System.nanoTime();
+
+        final AssemblyStatistics statistics = new AssemblyStatistics();
+        statistics.register("batch");
+
+        final ForkJoinPool pool = new ForkJoinPool();
+        final List<ForkJoinTask<Result>> tasks =
+            new ArrayList<ForkJoinTask<Result>>(inputFilenames.size());
+        try {
+            for (final String inputFilename : inputFilenames) {
+                tasks.add(pool.submit(new Callable<Result>() {
+                        public Result call() {
+                            return assemble(inputFilename, maxErrors,
+                                            format, cache);
+                        }
+                    }));
+            }
+
+            // Results are written as soon as all preceding files are
+            // done, so the output is independent of scheduling.
+            int failedFiles = 0;
+            for (final ForkJoinTask<Result> task : tasks) {
+                final Result result = task.join();
+                statistics.add(result.metrics);
+                if (!result.errors.equals("")) {
+                    out.println(result.errors);
+                    failedFiles++;
+                }
+            }
+
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final int files = inputFilenames.size();
+            out.println(String.format("%d file%s, %d file%s with errors, "
+                                      + "%.3f s (%.1f files/s)",
+                                      files, files == 1 ? "" : "s",
+                                      failedFiles,
+                                      failedFiles == 1 ? "" : "s",
+                                      seconds,
+                                      seconds > 0 ? files / seconds : 0.0));
+            out.println(statistics.getReport());
+            return failedFiles;
+        } finally {
+            pool.shutdown();
+            statistics.unregister();
+        }
+    }
+}
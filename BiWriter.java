@@ -8,17 +8,42 @@
 package se.kth.csc.nas;
 
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 /**
- * Writer of instructions and parameters.
+ * Writer of instructions and parameters. Hexadecimal digits are
+ * looked up in a table and collected in a buffer of characters,
+ * which is written to the underlying print writer, if any, when the
+ * line is flushed.
  */
 class BiWriter {
 
     /**
-     * Underlying print writer.
+     * Hexadecimal digits indexed by their values.
+     */
+    private final static char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Line separator written when flushing.
+     */
+    private final static String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * Underlying print writer or null if the output is only kept in
+     * the buffer.
      */
     protected final PrintWriter pw;
 
+    /**
+     * Characters written so far.
+     */
+    char[] buffer;
+
+    /**
+     * Number of characters in the buffer.
+     */
+    int length;
+
     /**
      * Creates a printer for binary objects.
      *
@@ -26,13 +51,58 @@ class BiWriter {
      */
     BiWriter(final PrintWriter pw) {
         this.pw = pw;
+        this.buffer = new char[256];
+        this.length = 0;
+    }
+
+    /**
+     * Creates a printer for binary objects that keeps its output in
+     * the buffer. The output is returned by {@link #toString()}.
+     */
+    BiWriter() {
+        this(null);
+    }
+
+    /**
+     * Makes room for the given number of characters in the buffer.
+     *
+     * @param n Number of characters.
+     */
+    private void ensureCapacity(final int n) {
+        if (length + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer,
+                                   Math.max(2 * buffer.length, length + n));
+        }
+    }
+
+    /**
+     * Writes the lowest nibbles of the integer as hexadecimal digits.
+     *
+     * @param n Integer value.
+     * @param digits Number of digits.
+     */
+    private void printHex(final int n, final int digits) {
+        ensureCapacity(digits);
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[length + i] = DIGITS[(n >>> 4 * (digits - 1 - i)) & 0xf];
+        }
+        length += digits;
     }
 
     /**
      * Flush the current line.
      */
     void flush() {
-        pw.println();
+        if (pw == null) {
+            ensureCapacity(LINE_SEPARATOR.length());
+            LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(),
+                                    buffer, length);
+            length += LINE_SEPARATOR.length();
+        } else {
+            pw.write(buffer, 0, length);
+            pw.println();
+            length = 0;
+        }
     }
 
     /**
@@ -41,7 +111,8 @@ class BiWriter {
      * @param operator Operator.
      */
     void printOperator(final Operator operator) {
-        pw.print(operator.code());
+        ensureCapacity(1);
+        buffer[length++] = operator.code().charAt(0);
     }
 
     /**
@@ -53,7 +124,7 @@ class BiWriter {
         if (b < 0 || b > 15) {
             throwError("byte", b);
         } else {
-            pw.printf("%x", b);
+            printHex(b, 1);
         }
     }
 
@@ -66,7 +137,7 @@ class BiWriter {
         if (w < 0 || w > 0xff) {
             throwError("word", w);
         } else {
-            pw.printf("%02x", w);
+            printHex(w, 2);
         }
     }
 
@@ -79,10 +150,41 @@ class BiWriter {
         if (c < 0 || c > 0xffff) {
             throwError("code", c);
         } else {
-            pw.printf("%04x", c);
+            printHex(c, 4);
         }
     }
 
+    /**
+     * Packs the hexadecimal digits of an executable two per byte. The
+     * digits end at the end of the string or at the first character
+     * that is not a hexadecimal digit, e.g., the line separator. Raw
+     * executables are always made from the text, since that is what
+     * the cache stores.
+     *
+     * @param executable Executable as hexadecimal text.
+     * @return Raw bytes of the executable.
+     */
+    static byte[] pack(final String executable) {
+        int digits = 0;
+        while (digits < executable.length()
+               && Character.digit(executable.charAt(digits), 16) >= 0) {
+            digits++;
+        }
+
+        final byte[] bytes = new byte[digits / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(executable.charAt(2 * i), 16);
+            final int low = Character.digit(executable.charAt(2 * i + 1), 16);
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
     /**
      * Syntactic sugar for throwing an error.
      *
@@ -0,0 +1,246 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+/**
+ * Control-flow graph of basic blocks of the parsing results, used to
+ * thread chains of jumps and to remove unreachable code.
+ *
+ * <p>
+ *
+ * The graph is built before relocation from jumps to labels, since
+ * the addresses are assigned again after code is removed. A block
+ * starts at the first instruction, at each target of a jump, and
+ * after each jump or halt. A block falls through to the next block
+ * unless it ends with an unconditional jump. A halted computer may be
+ * resumed, so a halt falls through as well.
+ *
+ * <p>
+ *
+ * The pass bails out without changes if a jump does not target a
+ * label, since the flow through it is unknown, or if the program may
+ * store into its own code, since a threaded jump may then be
+ * overwritten. The same checks as in {@link Peephole} are done before
+ * any code is removed.
+ */
+final class ControlFlowGraph {
+
+    /**
+     * Number of instructions.
+     */
+    final int size;
+
+    /**
+     * Index of the target of each instruction, or -1 if the
+     * instruction is not a jump to a label.
+     */
+    final int[] targets;
+
+    /**
+     * Index of the first instruction of each block.
+     */
+    final int[] starts;
+
+    /**
+     * Number of blocks.
+     */
+    final int noBlocks;
+
+    /**
+     * Index of the block of each instruction and of the end of the
+     * program.
+     */
+    final int[] blocks;
+
+    /**
+     * Creates the control-flow graph of the given instructions.
+     *
+     * @param il Instructions.
+     * @param targets Index of the target of each jump.
+     */
+    ControlFlowGraph(final InstructionList il, final int[] targets) {
+        this.size = il.size();
+        this.targets = targets;
+
+        final boolean[] leaders = new boolean[size + 1];
+        leaders[0] = true;
+        for (int i = 0; i < size; i++) {
+            final Operator operator = il.operator(i);
+            if (targets[i] >= 0) {
+                leaders[targets[i]] = true;
+            }
+            if (Peephole.isJump(operator) || operator == Operator.HALT) {
+                leaders[i + 1] = true;
+            }
+        }
+
+        this.starts = new int[size + 1];
+        this.blocks = new int[size + 1];
+        int block = -1;
+        for (int i = 0; i < size; i++) {
+            if (leaders[i]) {
+                starts[++block] = i;
+            }
+            blocks[i] = block;
+        }
+        this.noBlocks = block + 1;
+        blocks[size] = noBlocks;
+    }
+
+    /**
+     * Returns the blocks reachable from the first instruction.
+     *
+     * @param il Instructions.
+     * @return Indicator of reachability of each block.
+     */
+    boolean[] reachable(final InstructionList il) {
+        final boolean[] reached = new boolean[noBlocks];
+        final int[] stack = new int[noBlocks];
+        int top = 0;
+
+        if (noBlocks > 0) {
+            reached[0] = true;
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            final int block = stack[--top];
+            final int end =
+                block + 1 < noBlocks ? starts[block + 1] : size;
+            final int last = end - 1;
+
+            // Successors of the block are the target of its last
+            // instruction and the next block, unless it is the end of
+            // the program.
+            final int[] successors = {
+                targets[last] >= 0 ? blocks[targets[last]] : -1,
+                il.operator(last) == Operator.JUMP ? -1 : block + 1
+            };
+            for (final int successor : successors) {
+                if (successor >= 0 && successor < noBlocks
+                    && !reached[successor]) {
+                    reached[successor] = true;
+                    stack[top++] = successor;
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Returns true if the program may store into its own code, i.e.,
+     * if it stores to an explicit address or stores indirectly in a
+     * program that loads an explicit constant that may be the address
+     * of code.
+     *
+     * @param il Instructions.
+     * @return True if the program may store into its code.
+     */
+    static boolean mayModifyCode(final InstructionList il) {
+        boolean indirect = false;
+        boolean constant = false;
+        for (int i = 0; i < il.size(); i++) {
+            final boolean explicit = il.ids[i] == SymbolTable.NO_ID;
+            switch (il.operator(i)) {
+            case STORE:
+                if (explicit) {
+                    return true;
+                }
+                break;
+            case STORER:
+                indirect = true;
+                break;
+            case LOADC:
+
+                // Code ends with a halt and a jump after the
+                // instructions.
+                constant |= explicit
+                    && il.constants[i] < 4 * il.size() + 8;
+                break;
+            default:
+                break;
+            }
+        }
+        return indirect && constant;
+    }
+
+    /**
+     * Threads chains of jumps, i.e., retargets every jump to a label
+     * of an unconditional jump to the final target of the chain.
+     *
+     * @param il Instructions.
+     * @param targets Index of the target of each jump, which is
+     * updated.
+     * @return Number of threaded jumps.
+     */
+    static int thread(final InstructionList il, final int[] targets) {
+        final int size = il.size();
+        int threaded = 0;
+        for (int i = 0; i < size; i++) {
+            int target = targets[i];
+            int id = il.ids[i];
+
+            // A chain is shorter than the number of instructions
+            // unless it ends in a cycle, which is left as it is.
+            int hops = 0;
+            while (target >= 0 && target < size && target != i
+                   && il.operator(target) == Operator.JUMP
+                   && hops < size) {
+                id = il.ids[target];
+                target = targets[target];
+                hops++;
+            }
+            if (hops > 0 && hops < size) {
+                il.ids[i] = id;
+                targets[i] = target;
+                threaded++;
+            }
+        }
+        return threaded;
+    }
+
+    /**
+     * Threads jumps and removes unreachable code from the parsing
+     * results, which must be free of errors, and records the savings
+     * in the metrics if there are any.
+     *
+     * @param intermediateFormat Parsing results.
+     * @return Number of removed instructions.
+     */
+    static int optimize(final IntermediateFormat intermediateFormat) {
+        final InstructionList il = intermediateFormat.instructionList;
+        final int size = il.size();
+
+        final int[] targets = Peephole.targets(intermediateFormat);
+        if (targets == null || mayModifyCode(il)) {
+            return 0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Peephole.isJump(il.operator(i)) && targets[i] < 0) {
+                return 0;
+            }
+        }
+
+        final int threaded = thread(il, targets);
+
+        final ControlFlowGraph cfg = new ControlFlowGraph(il, targets);
+        final boolean[] reached = cfg.reachable(il);
+        final boolean[] keep = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            keep[i] = reached[cfg.blocks[i]];
+        }
+        final int removed = Peephole.compact(intermediateFormat, keep);
+
+        // Unreachable code is never executed, but each threaded jump
+        // saves a jump each time it is taken.
+        final AssemblyMetrics metrics = intermediateFormat.metrics;
+        if (metrics != null) {
+            metrics.bytesSaved += 4 * removed;
+            metrics.cyclesSaved += threaded;
+        }
+        return removed;
+    }
+}
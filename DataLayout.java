@@ -0,0 +1,167 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of the data following the code that minimizes its size.
+ * The symbols are placed in source order by default, so a padding
+ * word is inserted before every code symbol following an odd number
+ * of words. This pass places all code symbols before all words, i.e.,
+ * directly after the code which always ends on a 4-byte boundary, and
+ * drops the data symbols that are never referenced.
+ *
+ * <p>
+ *
+ * The order of the symbols is changed in the symbol table, so
+ * relocation and printing of the symbols remain mirrored. Moving data
+ * changes its addresses, so the pass bails out without changes if the
+ * program may depend on the relative placement of data: a reference
+ * with an offset outside its symbol, an explicit address of data, a
+ * jump into data, which may refer to other data by address when
+ * executed, or any indirect load or store, since a pointer held in a
+ * register may walk from a symbol into its neighbours without naming
+ * them.
+ */
+final class DataLayout {
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private DataLayout() {
+    }
+
+    /**
+     * Returns true if the type is the type of data.
+     *
+     * @param type Type of symbol.
+     * @return True if the type is WORD or CODE.
+     */
+    static boolean isData(final SymbolType type) {
+        return type == SymbolType.WORD || type == SymbolType.CODE;
+    }
+
+    /**
+     * Returns the number of bytes of the data of the given symbol.
+     *
+     * @param symbol Symbol of data.
+     * @return Number of bytes.
+     */
+    static int extent(final Symbol symbol) {
+        return (symbol.type == SymbolType.CODE ? 4 : 2)
+            * symbol.values.length;
+    }
+
+    /**
+     * Returns the data symbols referenced by the instructions of the
+     * parsing results, or null if the program may depend on the
+     * relative placement of data.
+     *
+     * @param intermediateFormat Parsing results.
+     * @return Indicator of reference for each identifier, or null.
+     */
+    static boolean[] referenced(final IntermediateFormat intermediateFormat) {
+        final InstructionList il = intermediateFormat.instructionList;
+        final SymbolTable symbolTable = intermediateFormat.symbolTable;
+        final int size = il.size();
+
+        for (int i = 0; i < size; i++) {
+            final Operator operator = il.operator(i);
+            if (operator == Operator.LOADR || operator == Operator.STORER) {
+                return null;
+            }
+        }
+
+        // Data starts after the halt and the jump following the code.
+        final int data = 4 * size + 8;
+        final boolean[] referenced = new boolean[symbolTable.noNames];
+        for (int i = 0; i < size; i++) {
+            final Operator operator = il.operator(i);
+            final int id = il.ids[i];
+
+            if (id == SymbolTable.NO_ID) {
+                final boolean address = Peephole.isJump(operator)
+                    || operator == Operator.LOAD
+                    || operator == Operator.STORE;
+                if (address && il.constants[i] >= data) {
+                    return null;
+                }
+                continue;
+            }
+
+            final Symbol symbol = symbolTable.get(id);
+            if (symbol == null) {
+                return null;
+            }
+            if (isData(symbol.type) && Peephole.isJump(operator)) {
+
+                // Executed data may name other data by address.
+                return null;
+            }
+            if (isData(symbol.type)) {
+                final int offset = il.constants[i] + il.offsets[i];
+                if (offset < 0 || offset >= extent(symbol)) {
+                    return null;
+                }
+                referenced[id] = true;
+            }
+        }
+        return referenced;
+    }
+
+    /**
+     * Places the code symbols before the words and drops unreferenced
+     * data symbols of the parsing results, which must be free of
+     * errors, and records the savings in the metrics if there are
+     * any.
+     *
+     * @param intermediateFormat Parsing results.
+     * @return Number of bytes saved.
+     */
+    static int optimize(final IntermediateFormat intermediateFormat) {
+        final SymbolTable symbolTable = intermediateFormat.symbolTable;
+        final int data = 4 * intermediateFormat.instructionList.size() + 8;
+
+        final boolean[] referenced = referenced(intermediateFormat);
+        if (referenced == null) {
+            return 0;
+        }
+
+        final List<Symbol> symbols = symbolTable.symbols;
+        final List<Symbol> layout = new ArrayList<Symbol>(symbols.size());
+        for (final Symbol symbol : symbols) {
+            if (!isData(symbol.type)) {
+                layout.add(symbol);
+            }
+        }
+        for (final SymbolType type : new SymbolType[] {
+                SymbolType.CODE, SymbolType.WORD
+            }) {
+            for (final Symbol symbol : symbols) {
+                if (symbol.type == type
+                    && referenced[symbolTable.lookup(symbol.name)]) {
+                    layout.add(symbol);
+                }
+            }
+        }
+
+        // Relocation is done again when the binary is generated, so
+        // the addresses assigned here only measure the savings.
+        final int before = symbolTable.relocate(data);
+        symbols.clear();
+        symbols.addAll(layout);
+        final int saved = before - symbolTable.relocate(data);
+
+        final AssemblyMetrics metrics = intermediateFormat.metrics;
+        if (metrics != null) {
+            metrics.bytesSaved += saved;
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,87 @@
+
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.Arrays;
+
+/**
+ * Entry representing a single error. There may be multiple errors for
+ * a single line of the source.
+ */
+class ErrorEntry {
+
+    /**
+     * Line number at which the error occured or minus one if this is
+     * not applicable.
+     */
+    int lineIndex;
+
+    /**
+     * Strings of which the first is a format of the error message and
+     * the rest are its arguments.
+     */
+    String[] params;
+
+    /**
+     * Exception that caused the error or null if no exception
+     * triggered the error.
+     */
+    Throwable throwable;
+
+    /**
+     * Creates an error entry in the log.
+     *
+     * @param lineIndex Line number at which the error occured or
+     * minus one if this is not applicable.
+     * @param params Strings of which the first is a format of the
+     * error message and the rest are its arguments.
+     * @param throwable Exception that caused the error or null if no
+     * exception triggered the error.
+     */
+    ErrorEntry(final int lineIndex, final String[] params,
+               final Throwable throwable) {
+        this.lineIndex = lineIndex;
+        this.params = params;
+        this.throwable = throwable;
+    }
+
+    /**
+     * Returns the error message. A single string is used as it is
+     * and otherwise the format is applied to the arguments.
+     *
+     * @return Error message.
+     */
+    String message() {
+        if (params.length == 1) {
+            return params[0];
+        } else {
+            final Object[] strings =
+                (Object[]) Arrays.copyOfRange(params, 1, params.length);
+            return String.format(params[0], strings);
+        }
+    }
+
+    /**
+     * Appends the error to the given builder.
+     *
+     * @param sb Destination of the error.
+     */
+    void appendTo(final StringBuilder sb) {
+        if (lineIndex >= 0) {
+            sb.append(lineIndex).append(": ");
+        }
+        sb.append(message());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+}
@@ -7,7 +7,6 @@
 
 package se.kth.csc.nas;
 
-import java.util.Arrays;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,7 +24,7 @@ public class ErrorLog {
     /**
      * Maximal number of errors.
      */
-    final int maxErrors;
+    int maxErrors;
 
     /**
      * Errors that have occured so far.
@@ -53,6 +52,18 @@ public class ErrorLog {
         this.tooManyErrors = false;
     }
 
+    /**
+     * Clears this log for use with another program.
+     *
+     * @param maxErrors Maximal number of errors accepted before an
+     * exception is thrown.
+     */
+    void reset(final int maxErrors) {
+        this.maxErrors = maxErrors;
+        this.errorEntries.clear();
+        this.tooManyErrors = false;
+    }
+
     /**
      * Returns the number of errors logged.
      *
@@ -63,7 +74,8 @@ public class ErrorLog {
     }
 
     /**
-     * Records an error in the log.
+     * Records an error in the log. The strings are kept as they are
+     * and only formatted when the error report is rendered.
      *
      * @param lineIndex Line at which the error occured. Minus one if
      * this is not applicable.
@@ -77,19 +89,13 @@ public class ErrorLog {
                final Throwable throwable,
                final String ... params)
         throws TooManyErrorsException {
-        String message;
-        if (params.length == 1) {
-            message = params[0];
-        } else {
-            final Object[] strings =
-                (Object[]) Arrays.copyOfRange(params, 1, params.length);
-            message = String.format(params[0], strings);
-        }
-        errorEntries.add(new ErrorEntry(lineIndex, message, throwable));
+
+        // The message is formatted when the report is rendered.
+        errorEntries.add(new ErrorEntry(lineIndex, params, throwable));
 
         if (errorEntries.size() >= maxErrors) {
             tooManyErrors = true;
-            throw new TooManyErrorsException();
+            throw TooManyErrorsException.INSTANCE;
         }
     }
 
@@ -152,7 +158,8 @@ public class ErrorLog {
         }
 
         for (ErrorEntry errorEntry : errorEntries) {
-            sb.append(errorEntry).append("\n");
+            errorEntry.appendTo(sb);
+            sb.append("\n");
         }
 
         if (errors > 0) {
@@ -167,55 +174,3 @@ public class ErrorLog {
         return sb.toString();
     }
 }
-
-/**
- * Entry representing a single error. There may be multiple errors for
- * a single line of the source.
- */
-class ErrorEntry {
-
-    /**
-     * Line number at which the error occured or minus one if this is
-     * not applicable.
-     */
-    int lineIndex;
-
-    /**
-     * Error message.
-     */
-    String message;
-
-    /**
-     * Exception that caused the error or null if no exception
-     * triggered the error.
-     */
-    Throwable throwable;
-
-    /**
-     * Creates an error entry in the log.
-     *
-     * @param lineIndex Line number at which the error occured or
-     * minus one if this is not applicable.
-     * @param message Error message.
-     * @param throwable Exception that caused the error or null if no
-     * exception triggered the error.
-     */
-    ErrorEntry(final int lineIndex, final String message,
-               final Throwable throwable) {
-        this.lineIndex = lineIndex;
-        this.message = message;
-        this.throwable = throwable;
-    }
-
-    @Override
-    public String toString() {
-
-        String s;
-        if (lineIndex < 0) {
-            s = message;
-        } else {
-            s = String.format("%d: %s", lineIndex, message);
-        }
-        return s;
-    }
-}
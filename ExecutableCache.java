@@ -0,0 +1,288 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of assembled executables and error reports, keyed
+ * by a hash of the source, the version of this software, and the
+ * maximal number of errors. Entries are written to temporary files
+ * and atomically renamed, so several processes may share a cache
+ * directory. The least recently used entries are evicted when the
+ * total size of the cache exceeds a limit.
+ *
+ * <p>
+ *
+ * The total size is only read from the directory when it is first
+ * needed and when the entries written since then may exceed the
+ * limit, and eviction then leaves room for further entries, so the
+ * directory is rarely listed. Entries written by other processes are
+ * only noticed when the directory is listed. Temporary files left
+ * behind by writers that crashed are deleted when they are old.
+ *
+ * <p>
+ *
+ * Error reports are stored without a label and the label of the
+ * current program is inserted when a report is returned, so
+ * identical sources with different filenames share an entry.
+ */
+final class ExecutableCache {
+
+    /**
+     * Default limit of the total size of a cache in bytes.
+     */
+    final static long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /**
+     * Postfix of temporary files that are not yet entries.
+     */
+    final static String TMP_POSTFIX = ".tmp";
+
+    /**
+     * Age in milliseconds after which a temporary file is assumed to
+     * be left behind by a writer that crashed.
+     */
+    final static long STALE_TMP_MILLIS = 60L * 60L * 1000L;
+
+    /**
+     * Header of error reports without a label.
+     */
+    final static String UNLABELED_HEADER = "Errors:\n";
+
+    /**
+     * Directory holding the entries.
+     */
+    final Path directory;
+
+    /**
+     * Limit of the total size of the entries in bytes.
+     */
+    final long maxBytes;
+
+    /**
+     * Total size of the entries in bytes as of the last listing of the
+     * directory plus the sizes of the entries written since, or -1 if
+     * the directory has not been listed.
+     */
+    private final AtomicLong totalBytes;
+
+    /**
+     * Creates a cache in the given directory, which is created if
+     * needed.
+     *
+     * @param directory Directory holding the entries.
+     * @param maxBytes Limit of the total size of the entries in
+     * bytes.
+     * @throws IOException If the directory could not be created.
+     */
+    ExecutableCache(final Path directory, final long maxBytes)
+        throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.totalBytes = new AtomicLong(-1);
+    }
+
+    /**
+     * Returns the key of a source.
+     *
+     * @param source Source in UTF-8. Its position is not changed.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param optimize Indicates that redundant instructions are
+     * removed.
+     * @return Key of the source as a hexadecimal string.
+     */
+    static String key(final ByteBuffer source,
+                      final int maxErrors,
+                      final boolean optimize) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException nsae) {
+            throw new NASError("SHA-256 is not supported!", nsae);
+        }
+        md.update(String.valueOf(NAS.VERSION).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(ByteBuffer.allocate(4).putInt(0, maxErrors));
+        md.update((byte) (optimize ? 1 : 0));
+        md.update(source.duplicate());
+
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached executable and unlabeled error report of the
+     * given key. The entry is marked as recently used.
+     *
+     * @param key Key of source.
+     * @return Executable, which may be null, and error report, or
+     * null if there is no entry or it could not be read.
+     */
+    String[] get(final String key) {
+        final Path path = directory.resolve(key);
+        try {
+            final byte[] bytes = Files.readAllBytes(path);
+            Files.setLastModifiedTime(path,
+                                      FileTime.fromMillis(
+                                          System.currentTimeMillis()));
+
+            final DataInputStream dis =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+
+            // A length beyond the end of the file means the entry is
+            // corrupt, which is treated as a miss.
+            final String executable = Server.readString(dis, bytes.length);
+            final String errors = Server.readString(dis, bytes.length);
+            return new String[] {executable, errors};
+        } catch (final IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the executable and unlabeled error report of the given
+     * key, and evicts entries if the cache is too large. Failures are
+     * ignored, since the cache is only an optimization.
+     *
+     * @param key Key of source.
+     * @param executable Executable or null.
+     * @param errors Unlabeled error report.
+     */
+    void put(final String key, final String executable, final String errors) {
+        Path tmp = null;
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(baos);
+            Server.writeString(dos, executable);
+            Server.writeString(dos, errors);
+            dos.flush();
+
+            final byte[] bytes = baos.toByteArray();
+            tmp = Files.createTempFile(directory, key, TMP_POSTFIX);
+            Files.write(tmp, bytes);
+            Files.move(tmp, directory.resolve(key),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            tmp = null;
+
+            if (totalBytes.get() < 0
+                || totalBytes.addAndGet(bytes.length) > maxBytes) {
+                evict();
+            }
+        } catch (final IOException ioe) {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (final IOException ioe2) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the directory to find the total size of the entries, and
+     * if it exceeds the limit, then deletes the least recently used
+     * entries until the total size is at most three quarters of the
+     * limit.
+     * Stale temporary files are deleted as well.
+     *
+     * @throws IOException If the directory could not be listed.
+     */
+    synchronized void evict() throws IOException {
+        final List<Path> paths = new ArrayList<Path>();
+        final List<BasicFileAttributes> attributes =
+            new ArrayList<BasicFileAttributes>();
+        final long stale = System.currentTimeMillis() - STALE_TMP_MILLIS;
+        long total = 0;
+
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory)) {
+            for (final Path path : ds) {
+                try {
+                    final BasicFileAttributes bfa =
+                        Files.readAttributes(path, BasicFileAttributes.class);
+                    if (!path.getFileName().toString().endsWith(TMP_POSTFIX)) {
+                        paths.add(path);
+                        attributes.add(bfa);
+                        total += bfa.size();
+                    } else if (bfa.lastModifiedTime().toMillis() < stale) {
+                        Files.deleteIfExists(path);
+                    }
+                } catch (final NoSuchFileException nsfe) {
+                    // Evicted or renamed by another process.
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            totalBytes.set(total);
+            return;
+        }
+
+        final List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < paths.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+                public int compare(final Integer i, final Integer j) {
+                    return attributes.get(i).lastModifiedTime()
+                        .compareTo(attributes.get(j).lastModifiedTime());
+                }
+            });
+
+        // Leave room for further entries before the next listing.
+        final long lowWater = maxBytes - maxBytes / 4;
+        for (final int i : order) {
+            if (total <= lowWater) {
+                break;
+            }
+            Files.deleteIfExists(paths.get(i));
+            total -= attributes.get(i).size();
+        }
+        totalBytes.set(total);
+    }
+
+    /**
+     * Inserts the label into an unlabeled error report in the same
+     * way as {@link ErrorLog#toString(String)}.
+     *
+     * @param errors Unlabeled error report.
+     * @param label Label of source code or null.
+     * @return Error report.
+     */
+    static String relabel(final String errors, final String label) {
+        if (label != null && errors.startsWith(UNLABELED_HEADER)) {
+            return "Errors in " + label + ":\n"
+                + errors.substring(UNLABELED_HEADER.length());
+        } else {
+            return errors;
+        }
+    }
+}
@@ -10,7 +10,9 @@ package se.kth.csc.nas;
 import java.util.Formatter;
 
 /**
- * Abstract representation of an instruction.
+ * Abstract representation of an instruction. Instructions are stored
+ * in packed form in {@link InstructionList}, which materializes them
+ * as objects on request.
  */
 class Instruction {
 
@@ -70,44 +72,6 @@ class Instruction {
         this.value = value;
     }
 
-    /**
-     * Print a binary representation of this instruction.
-     *
-     * @param biw Binary writer.
-     */
-    void printBinary(final BiWriter biw) {
-
-        int v = value == null ? 0 : value.constant;
-        int b = 0;
-
-        biw.printOperator(operator);
-
-        switch (operator) {
-        case JUMPLE:
-            b++;
-            // fall through
-        case JUMPL:
-            b++;
-            // fall through
-        case JUMPN:
-            b++;
-            // fall through
-        case JUMPE:
-        case JUMP:
-        case LOAD:
-        case LOADC:
-        case STORE:
-        case ADDC:
-            biw.printByte(r);
-            biw.printWord(v + b);
-            break;
-        default:
-            biw.printByte(r);
-            biw.printByte(s);
-            biw.printByte(t);
-        }
-    }
-
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -1,4 +1,3 @@
-
 /**
  * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
  * This file is part of the NIC/NAS software licensed under BSD
@@ -7,18 +6,72 @@
 
 package se.kth.csc.nas;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Stores list of instructions.
+ * Stores list of instructions. The components of the instructions
+ * are stored in parallel arrays indexed by the position of the
+ * instruction, so no objects are allocated per instruction and the
+ * relocation and printing passes are tight loops over arrays.
  */
 class InstructionList {
 
     /**
-     * Underlying list of instructions.
+     * Operators indexed by their ordinals.
+     */
+    final static Operator[] OPERATORS = Operator.values();
+
+    /**
+     * Number of instructions.
+     */
+    int size;
+
+    /**
+     * Line numbers of source code where the instructions appeared.
      */
-    final List<Instruction> instructions;
+    int[] lineIndices;
+
+    /**
+     * Ordinals of operators.
+     */
+    int[] operators;
+
+    /**
+     * First register indices.
+     */
+    int[] rs;
+
+    /**
+     * Second register indices.
+     */
+    int[] ss;
+
+    /**
+     * Third register indices.
+     */
+    int[] ts;
+
+    /**
+     * Constants of values, or zero if there is no value.
+     */
+    int[] constants;
+
+    /**
+     * Offsets of values from their symbolic basis.
+     */
+    int[] offsets;
+
+    /**
+     * Identifiers of the symbolic basis of values, or {@link
+     * SymbolTable#NO_ID} if a value is explicit or if there is no
+     * value.
+     */
+    int[] ids;
+
+    /**
+     * Indicates if values are printed in hexadecimal notation.
+     */
+    boolean[] hexFormats;
 
     /**
      * Error log.
@@ -31,8 +84,131 @@ class InstructionList {
      * @param errorLog Error log.
      */
     InstructionList(final ErrorLog errorLog) {
-        this.instructions = new ArrayList<Instruction>();
         this.errorLog = errorLog;
+        this.size = 0;
+        allocate(16);
+    }
+
+    /**
+     * Clears this list for use with another program. The arrays are
+     * kept at their current size.
+     */
+    void reset() {
+        size = 0;
+    }
+
+    /**
+     * Reallocates the arrays with the given capacity, keeping the
+     * stored instructions.
+     *
+     * @param capacity Number of instructions that fit in the arrays.
+     */
+    private void allocate(final int capacity) {
+        if (lineIndices == null) {
+            lineIndices = new int[capacity];
+            operators = new int[capacity];
+            rs = new int[capacity];
+            ss = new int[capacity];
+            ts = new int[capacity];
+            constants = new int[capacity];
+            offsets = new int[capacity];
+            ids = new int[capacity];
+            hexFormats = new boolean[capacity];
+        } else {
+            lineIndices = Arrays.copyOf(lineIndices, capacity);
+            operators = Arrays.copyOf(operators, capacity);
+            rs = Arrays.copyOf(rs, capacity);
+            ss = Arrays.copyOf(ss, capacity);
+            ts = Arrays.copyOf(ts, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            hexFormats = Arrays.copyOf(hexFormats, capacity);
+        }
+    }
+
+    /**
+     * Sets the number of instructions, growing the arrays if needed.
+     * Added instructions must be stored with {@link
+     * #copy(InstructionList, int, int, int[])}.
+     *
+     * @param size Number of instructions.
+     */
+    void resize(final int size) {
+        if (size > lineIndices.length) {
+            allocate(Math.max(size, 2 * lineIndices.length));
+        }
+        this.size = size;
+    }
+
+    /**
+     * Copies the instructions of the given list to this list starting
+     * at the given index, which must be within the size of this list.
+     * Copies of disjoint ranges may be made concurrently.
+     *
+     * @param list Instructions to copy.
+     * @param index Index of the first copy in this list.
+     * @param lineOffset Number added to the line numbers.
+     * @param ids Identifier in this list of each identifier in the
+     * given list.
+     */
+    void copy(final InstructionList list,
+              final int index,
+              final int lineOffset,
+              final int[] ids) {
+        final int n = list.size;
+        System.arraycopy(list.operators, 0, operators, index, n);
+        System.arraycopy(list.rs, 0, rs, index, n);
+        System.arraycopy(list.ss, 0, ss, index, n);
+        System.arraycopy(list.ts, 0, ts, index, n);
+        System.arraycopy(list.constants, 0, constants, index, n);
+        System.arraycopy(list.offsets, 0, offsets, index, n);
+        System.arraycopy(list.hexFormats, 0, hexFormats, index, n);
+        for (int i = 0; i < n; i++) {
+            lineIndices[index + i] = list.lineIndices[i] + lineOffset;
+            final int id = list.ids[i];
+            this.ids[index + i] = id == SymbolTable.NO_ID ? id : ids[id];
+        }
+    }
+
+    /**
+     * Stores an instruction parsed from the given line number in the
+     * assembler source, with the operator and components as
+     * indicated. All parameters are not used for all operators.
+     *
+     * @param lineIndex Line number of instruction.
+     * @param operator Operator.
+     * @param r Register index.
+     * @param s Register index.
+     * @param t Register index.
+     * @param value Value or null.
+     */
+    void add(final int lineIndex,
+             final Operator operator,
+             final int r,
+             final int s,
+             final int t,
+             final Value value) {
+        if (size == lineIndices.length) {
+            allocate(2 * size);
+        }
+        lineIndices[size] = lineIndex;
+        operators[size] = operator.ordinal();
+        rs[size] = r;
+        ss[size] = s;
+        ts[size] = t;
+        if (value == null) {
+            constants[size] = 0;
+            offsets[size] = 0;
+            ids[size] = SymbolTable.NO_ID;
+            hexFormats[size] = false;
+        } else {
+            constants[size] = value.constant;
+            offsets[size] = value.offset;
+            ids[size] = value.id;
+            hexFormats[size] = value.hexFormat;
+        }
+        size++;
     }
 
     /**
@@ -41,7 +217,8 @@ class InstructionList {
      * @param instruction Instruction to be stored.
      */
     void add(final Instruction instruction) {
-        instructions.add(instruction);
+        add(instruction.lineIndex, instruction.operator,
+            instruction.r, instruction.s, instruction.t, instruction.value);
     }
 
     /**
@@ -50,44 +227,126 @@ class InstructionList {
      * @return Number of instructions in the table.
      */
     int size() {
-        return instructions.size();
+        return size;
+    }
+
+    /**
+     * Returns the operator of the instruction with the given index.
+     *
+     * @param index Index of instruction.
+     * @return Operator.
+     */
+    Operator operator(final int index) {
+        return OPERATORS[operators[index]];
+    }
+
+    /**
+     * Returns the value of the instruction with the given index as an
+     * object, e.g., to print it.
+     *
+     * @param index Index of instruction.
+     * @return Value.
+     */
+    Value value(final int index) {
+        final Value value =
+            new Value(ids[index], constants[index], offsets[index]);
+        if (hexFormats[index]) {
+            value.useHexFormat();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the instruction with the given index as an object,
+     * e.g., to print it.
+     *
+     * @param index Index of instruction.
+     * @return Instruction.
+     */
+    Instruction get(final int index) {
+        return new Instruction(lineIndices[index], operator(index),
+                               rs[index], ss[index], ts[index],
+                               value(index));
+    }
+
+    /**
+     * Removes the instructions that are not kept and moves the labels
+     * accordingly, as if the kept instructions had been parsed alone.
+     * A label of a removed instruction moves to the next kept
+     * instruction.
+     *
+     * @param keep Indicates the instructions to keep.
+     * @param symbolTable Symbol table holding the labels.
+     * @return Number of removed instructions.
+     */
+    int compact(final boolean[] keep, final SymbolTable symbolTable) {
+
+        // Index of each instruction after compaction, where the index
+        // of a removed instruction is that of the next kept one.
+        final int[] moved = new int[size + 1];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            moved[i] = kept;
+            if (keep[i]) {
+                lineIndices[kept] = lineIndices[i];
+                operators[kept] = operators[i];
+                rs[kept] = rs[i];
+                ss[kept] = ss[i];
+                ts[kept] = ts[i];
+                constants[kept] = constants[i];
+                offsets[kept] = offsets[i];
+                ids[kept] = ids[i];
+                hexFormats[kept] = hexFormats[i];
+                kept++;
+            }
+        }
+        moved[size] = kept;
+
+        for (final Symbol symbol : symbolTable.symbols) {
+            if (symbol.type == SymbolType.LABEL) {
+                symbol.setAddress(4 * moved[symbol.address / 4]);
+            }
+        }
+
+        final int removed = size - kept;
+        size = kept;
+        return removed;
     }
 
     /**
      * Relocates the given instruction relative the symbol table if
      * needed. Alignment requirements is indicated by the booleans.
      *
-     * @param instruction Instruction to relocate.
+     * @param index Index of instruction to relocate.
      * @param symbolTable Symbol table.
      * @param align2 Indicates 2-alignment.
      * @param align4 Indicates 4-alignment.
      */
-    void relocateInstruction(final Instruction instruction,
+    void relocateInstruction(final int index,
                              final SymbolTable symbolTable,
                              final boolean align2,
                              final boolean align4) {
 
-        final String name = instruction.value.name;
+        final int id = ids[index];
 
         // Value is explicit, so there is no need to relocate.
-        if (name.equals("")) {
+        if (id == SymbolTable.NO_ID) {
             return;
         }
 
-        final Symbol symbol = symbolTable.get(name);
+        final Symbol symbol = symbolTable.get(id);
         if (symbol == null) {
-            errorLog.error(instruction.lineIndex, "Undefined name! (%s)", name);
+            errorLog.error(lineIndices[index], "Undefined name! (%s)",
+                           symbolTable.name(id));
         } else {
             final int res =
-                (instruction.value.constant
-                 + symbol.address
-                 + instruction.value.offset) % 0x100;
+                (constants[index] + symbol.address + offsets[index]) % 0x100;
 
             if (res < 0 || res > 0xff) {
                 final String an = align2 ? "Adress" : "Number";
-                errorLog.error(instruction.lineIndex,
+                errorLog.error(lineIndices[index],
                                "%s is out of range! (%s)",
-                               an, "" + instruction.value);
+                               an, value(index).toString(symbolTable));
             }
 
             if (align4 && res % 4 != 0 || align2 && res % 2 != 0) {
@@ -96,15 +355,15 @@ class InstructionList {
 
                 final String alignment = align4 ? "4" : "2";
 
-                errorLog.error(instruction.lineIndex,
+                errorLog.error(lineIndices[index],
                                format,
                                alignment,
-                               instruction.value.toString());
+                               value(index).toString(symbolTable));
             }
 
-            instruction.value.name = "";
-            instruction.value.constant = res;
-            instruction.value.offset = 0;
+            ids[index] = SymbolTable.NO_ID;
+            constants[index] = res;
+            offsets[index] = 0;
         }
     }
 
@@ -116,12 +375,12 @@ class InstructionList {
      */
     void relocate(final SymbolTable symbolTable) {
 
-        for (Instruction instruction: instructions) {
+        for (int i = 0; i < size; i++) {
 
             boolean align2 = false;
             boolean align4 = false;
 
-            switch (instruction.operator) {
+            switch (OPERATORS[operators[i]]) {
             case JUMP:
             case JUMPE:
             case JUMPN:
@@ -136,7 +395,7 @@ class InstructionList {
             case LOADC:
             case ADDC:
 
-                relocateInstruction(instruction, symbolTable, align2, align4);
+                relocateInstruction(i, symbolTable, align2, align4);
             }
         }
     }
@@ -147,8 +406,37 @@ class InstructionList {
      * @param biw Binary writer.
      */
     void printBinary(final BiWriter biw) {
-        for (Instruction instruction : instructions) {
-            instruction.printBinary(biw);
+        for (int i = 0; i < size; i++) {
+
+            final Operator operator = OPERATORS[operators[i]];
+            int b = 0;
+
+            biw.printOperator(operator);
+
+            switch (operator) {
+            case JUMPLE:
+                b++;
+                // fall through
+            case JUMPL:
+                b++;
+                // fall through
+            case JUMPN:
+                b++;
+                // fall through
+            case JUMPE:
+            case JUMP:
+            case LOAD:
+            case LOADC:
+            case STORE:
+            case ADDC:
+                biw.printByte(rs[i]);
+                biw.printWord(constants[i] + b);
+                break;
+            default:
+                biw.printByte(rs[i]);
+                biw.printByte(ss[i]);
+                biw.printByte(ts[i]);
+            }
         }
     }
 }
@@ -8,10 +8,15 @@
 package se.kth.csc.nas;
 
 import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.List;
 
+import se.kth.csc.nas.AssemblerEvent.GenerateBinaryEvent;
+import se.kth.csc.nas.AssemblerEvent.RelocateInstructionsEvent;
+import se.kth.csc.nas.AssemblerEvent.RelocateSymbolsEvent;
+import se.kth.csc.nas.AssemblerEvent.RenderErrorsEvent;
+import se.kth.csc.nas.AssemblyMetrics.Phase;
+
 /**
  * Container class for parsing results.
  */
@@ -37,6 +42,17 @@ class IntermediateFormat {
      */
     InstructionList instructionList;
 
+    /**
+     * Metrics filled in while generating binary code and errors, or
+     * null.
+     */
+    AssemblyMetrics metrics;
+
+    /**
+     * Program label used in flight recorder events, or null.
+     */
+    String label;
+
     /**
      * Creates container for parsing results.
      *
@@ -49,10 +65,32 @@ class IntermediateFormat {
                        final ErrorLog errorLog,
                        final SymbolTable symbolTable,
                        final InstructionList instructionList) {
+        this(lines, errorLog, symbolTable, instructionList, null, null);
+    }
+
+    /**
+     * Creates container for parsing results.
+     *
+     * @param lines Lines of source code.
+     * @param errorLog Error log.
+     * @param symbolTable Table of symbols.
+     * @param instructionList List of instructions.
+     * @param metrics Metrics or null.
+     * @param label Program label used in flight recorder events, or
+     * null.
+     */
+    IntermediateFormat(final List<String> lines,
+                       final ErrorLog errorLog,
+                       final SymbolTable symbolTable,
+                       final InstructionList instructionList,
+                       final AssemblyMetrics metrics,
+                       final String label) {
         this.lines = lines;
         this.errorLog = errorLog;
         this.symbolTable = symbolTable;
         this.instructionList = instructionList;
+        this.metrics = metrics;
+        this.label = label;
     }
 
     /**
@@ -66,12 +104,31 @@ class IntermediateFormat {
         biw.printCode(0x1f1f);
         biw.printCode(0x1f1f);
 
-        // Relocate words to the end of program + halt + jump to 0
-        symbolTable.relocate(4 * instructionList.size() + 8);
+        final long start = metrics == null ? 0 : System.nanoTime();
+        try {
 
-        // Relocate symbolic values used in instructions using the
-        // symbol table.
-        instructionList.relocate(symbolTable);
+            // Relocate words to the end of program + halt + jump to 0
+            final AssemblerEvent symbolsEvent = new RelocateSymbolsEvent();
+            symbolsEvent.begin();
+            symbolTable.relocate(4 * instructionList.size() + 8);
+            symbolsEvent.commit(this);
+
+            // Relocate symbolic values used in instructions using the
+            // symbol table.
+            final AssemblerEvent instructionsEvent =
+                new RelocateInstructionsEvent();
+            instructionsEvent.begin();
+            try {
+                instructionList.relocate(symbolTable);
+            } finally {
+                instructionsEvent.commit(this);
+            }
+
+        } finally {
+            if (metrics != null) {
+                metrics.add(Phase.RELOCATE, System.nanoTime() - start);
+            }
+        }
 
         // Print instructions.
         instructionList.printBinary(biw);
@@ -104,14 +161,41 @@ class IntermediateFormat {
      * @return Binary program.
      */
     String generateBinary() {
-        StringWriter sw = new StringWriter();
+        final GenerateBinaryEvent event = new GenerateBinaryEvent();
+        event.begin();
+        final long start = metrics == null ? 0 : System.nanoTime();
+        final long relocateNanos =
+            metrics == null ? 0 : metrics.getNanos(Phase.RELOCATE);
+        String executable = null;
+        try {
+            executable = generateExecutable();
+            return executable;
+        } finally {
+            event.executableSize =
+                executable == null ? 0 : executable.length();
+            event.commit(this);
+            if (metrics != null) {
+                final long relocated =
+                    metrics.getNanos(Phase.RELOCATE) - relocateNanos;
+                metrics.add(Phase.EMIT,
+                            System.nanoTime() - start - relocated);
+            }
+        }
+    }
+
+    /**
+     * Generates binary code and checks its length.
+     *
+     * @return Binary program.
+     */
+    private String generateExecutable() {
+        final BiWriter biw = new BiWriter();
         try {
-            generateBinary(sw);
-            final String executable = sw.toString();
+            generateBinary(biw);
+            final String executable = biw.toString();
             if (executable.length() > 256) {
-                errorLog.error(String.format("Executable is too long! "
-                                             + "(%d > 256)",
-                                             executable.length()));
+                errorLog.error("Executable is too long! (%s > 256)",
+                               Integer.toString(executable.length()));
                 return null;
             } else {
                 return executable;
@@ -137,6 +221,17 @@ class IntermediateFormat {
      * @return Error log as a string.
      */
     String generateErrors(final String label) {
-        return errorLog.toString(label);
+        final RenderErrorsEvent event = new RenderErrorsEvent();
+        event.begin();
+        final long start = metrics == null ? 0 : System.nanoTime();
+
+        final String errors = errorLog.toString(label);
+
+        if (metrics != null) {
+            metrics.add(Phase.RENDER, System.nanoTime() - start);
+        }
+        event.reportLength = errors.length();
+        event.commit(this);
+        return errors;
     }
 }
@@ -1,4 +1,3 @@
-
 /**
  * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
  * This file is part of the NIC/NAS software licensed under BSD
@@ -7,29 +6,152 @@
 
 package se.kth.csc.nas;
 
-import java.io.IOException;
-import se.kth.csc.nic.Computer;
-
 /**
  * Wrapper of Nilsson Instructional Computer (NIC) for use with the
  * Kattis {@link https://kth.kattis.com/} system.
  *
+ * <p>
+ *
+ * The wrapper is a self-contained Java class holding the assembled
+ * executable as a constant along with a minimal interpreter, so the
+ * judged program neither depends on the assembler nor parses any
+ * source at startup. Each line of standard input holds the initial
+ * values of the registers r0, r1, ..., in decimal. The program is run
+ * from a freshly loaded memory for each line, and the values of all
+ * registers after it halts are written as a line on standard out.
+ *
  * @author Douglas Wikstrom
  */
 public class Kattis {
 
+    /**
+     * Name of the generated class and file.
+     */
+    final static String CLASS_NAME = "Kattis";
+
+    /**
+     * Place holder replaced by the executable in the template.
+     */
+    final static String EXECUTABLE_PLACE_HOLDER = "EXECUTABLE_PLACE_HOLDER";
+
     final static String PROGRAM_TEMPLATE =
-  "public class Kattis {\n"
+  "import java.io.BufferedReader;\n"
++ "import java.io.IOException;\n"
++ "import java.io.InputStreamReader;\n"
++ "\n"
++ "public class Kattis {\n"
++ "\n"
++ "    /**\n"
++ "     * Executable produced by the assembler.\n"
++ "     */\n"
++ "    final static String EXECUTABLE = \"EXECUTABLE_PLACE_HOLDER\";\n"
++ "\n"
++ "    /**\n"
++ "     * Maximal number of instructions executed per line of input.\n"
++ "     */\n"
++ "    final static long MAX_STEPS = 100000000L;\n"
++ "\n"
++ "    static int word(final byte[] m, final int a) {\n"
++ "        return (byte) (m[a] << 4 | m[(a + 1) & 0xff]);\n"
++ "    }\n"
++ "\n"
++ "    static void store(final byte[] m, final int a, final int v) {\n"
++ "        m[a] = (byte) (v >> 4 & 0xf);\n"
++ "        m[(a + 1) & 0xff] = (byte) (v & 0xf);\n"
++ "    }\n"
++ "\n"
++ "    static int shift(final int s, final int t) {\n"
++ "        if (t >= 0) {\n"
++ "            return t >= 8 ? 0 : (byte) (s << t);\n"
++ "        } else {\n"
++ "            return s >> Math.min(-t, 7);\n"
++ "        }\n"
++ "    }\n"
++ "\n"
++ "    /**\n"
++ "     * Runs the program until it halts or the step limit is reached.\n"
++ "     */\n"
++ "    static void run(final byte[] m, final int[] reg) {\n"
++ "        int pc = 0;\n"
++ "        for (long n = 0; n < MAX_STEPS; n++) {\n"
++ "            final int op = m[pc];\n"
++ "            final int r = m[pc + 1];\n"
++ "            final int s = m[pc + 2];\n"
++ "            final int t = m[pc + 3];\n"
++ "            final int xy = s << 4 | t;\n"
++ "            pc = (pc + 4) & 0xff;\n"
++ "\n"
++ "            switch (op) {\n"
++ "            case 0x0: return;\n"
++ "            case 0x1: reg[r] = word(m, xy); break;\n"
++ "            case 0x2: reg[r] = (byte) xy; break;\n"
++ "            case 0x3: reg[s] = word(m, reg[t] & 0xff); break;\n"
++ "            case 0x4: store(m, xy, reg[r]); break;\n"
++ "            case 0x5: store(m, reg[t] & 0xff, reg[s]); break;\n"
++ "            case 0x6: reg[s] = reg[t]; break;\n"
++ "            case 0x7: reg[r] = (byte) (reg[s] + reg[t]); break;\n"
++ "            case 0x8: reg[r] = (byte) (reg[r] + xy); break;\n"
++ "            case 0x9: reg[r] = (byte) (reg[s] * reg[t]); break;\n"
++ "            case 0xa: reg[r] = (byte) (reg[s] - reg[t]); break;\n"
++ "            case 0xb: reg[r] = shift(reg[s], reg[t]); break;\n"
++ "            case 0xc: reg[r] = reg[s] & reg[t]; break;\n"
++ "            case 0xd: reg[r] = reg[s] | reg[t]; break;\n"
++ "            case 0xe: reg[r] = reg[s] ^ reg[t]; break;\n"
++ "            default:\n"
++ "                final int c = xy & 3;\n"
++ "                if (c == 0 && reg[r] == reg[0]\n"
++ "                    || c == 1 && reg[r] != reg[0]\n"
++ "                    || c == 2 && reg[r] < reg[0]\n"
++ "                    || c == 3 && reg[r] <= reg[0]) {\n"
++ "                    pc = xy & 0xfc;\n"
++ "                }\n"
++ "                break;\n"
++ "            }\n"
++ "        }\n"
++ "    }\n"
 + "\n"
 + "    /**\n"
 + "     * Reads each line of standard in, executes the program, and write\n"
 + "     * the result on standard out.\n"
 + "     */\n"
-+ "    public static String main(final String[] args) {\n"
-+ "        final Computer computer = new Computer(PROGRAM_PLACE_HOLDER);\n"
-+ "        final String executable =\n"
-+ "            NAS.assemble(null, PROGRAM, NAS.MAX_ERRORS, errorStream);\n"
-+ "        computer.setProgram(executable);\n"
++ "    public static void main(final String[] args) throws IOException {\n"
++ "        final byte[] image = new byte[256];\n"
++ "        for (int i = 8; i < EXECUTABLE.length(); i++) {\n"
++ "            image[i - 8] = (byte) Character.digit(EXECUTABLE.charAt(i), 16);\n"
++ "        }\n"
++ "\n"
++ "        final BufferedReader in =\n"
++ "            new BufferedReader(new InputStreamReader(System.in));\n"
++ "        final StringBuilder out = new StringBuilder();\n"
++ "        String line;\n"
++ "        while ((line = in.readLine()) != null) {\n"
++ "            final String[] values = line.trim().split(\"\\\\s+\");\n"
++ "            final int[] reg = new int[16];\n"
++ "            for (int i = 0; i < Math.min(values.length, 16); i++) {\n"
++ "                if (!values[i].isEmpty()) {\n"
++ "                    reg[i] = (byte) Integer.parseInt(values[i]);\n"
++ "                }\n"
++ "            }\n"
++ "\n"
++ "            run(image.clone(), reg);\n"
++ "\n"
++ "            for (int i = 0; i < 16; i++) {\n"
++ "                out.append(i == 0 ? \"\" : \" \").append(reg[i]);\n"
++ "            }\n"
++ "            out.append('\\n');\n"
++ "        }\n"
++ "        System.out.print(out);\n"
 + "    }\n"
-+ "}";
-}
\ No newline at end of file
++ "}\n";
+
+    /**
+     * Returns the source of the wrapper of the given executable.
+     *
+     * @param executable Executable produced by the assembler.
+     * @return Source of wrapper.
+     */
+    static String generate(final String executable) {
+        return PROGRAM_TEMPLATE.replace(EXECUTABLE_PLACE_HOLDER,
+                                        executable.trim());
+    }
+}
@@ -7,6 +7,8 @@
 
 package se.kth.csc.nas;
 
+import java.nio.CharBuffer;
+
 /**
  * Lexical analysis routines.
  */
@@ -22,6 +24,11 @@ class Lex {
      */
     final ErrorLog errorLog;
 
+    /**
+     * Scanner used to find the tokens of a line.
+     */
+    final LineScanner scanner;
+
     /**
      * Creates a lexical analyzer with the given error log.
      *
@@ -31,6 +38,7 @@ class Lex {
     Lex(final int BLOCKSIZE, final ErrorLog errorLog) {
         this.BLOCKSIZE = BLOCKSIZE;
         this.errorLog = errorLog;
+        this.scanner = new LineScanner();
     }
 
     /**
@@ -40,30 +48,46 @@ class Lex {
      * @param line Line to be tokenized.
      * @return Tokens or null.
      */
-    String[] tokenizeLine(final String line) {
-
-        String s = line;
-
-        // Strip comments.
-        int end = s.indexOf("//");
-        if (end >= 0) {
-            s = s.substring(0, end);
-        }
+    String[] tokenizeLine(final CharSequence line) {
 
-        // Strip spurious white space at ends of string.
-        s = s.trim();
+        final int count = scanner.scan(line);
 
-        // Split at whitespace into multiple strings containing no
-        // whitespace.
-        final String[] tokens = s.split("\\s+");
-
-        if (tokens[0].equals("")) {
+        if (count == 0) {
             return null;
         } else {
+            final String[] tokens = new String[count];
+            for (int i = 0; i < count; i++) {
+                tokens[i] = token(line, scanner.starts[i], scanner.ends[i]);
+            }
             return tokens;
         }
     }
 
+    /**
+     * Returns the given range of the line as a string. Lines viewed
+     * in place are copied directly into the string.
+     *
+     * @param line Line holding the token.
+     * @param start Start index of the token.
+     * @param end End index (exclusive) of the token.
+     * @return Token.
+     */
+    static String token(final CharSequence line,
+                        final int start,
+                        final int end) {
+        if (line instanceof AsciiSequence) {
+            return ((AsciiSequence) line).substring(start, end);
+        } else if (line instanceof CharBuffer
+                   && ((CharBuffer) line).hasArray()) {
+            final CharBuffer cb = (CharBuffer) line;
+            return new String(cb.array(),
+                              cb.arrayOffset() + cb.position() + start,
+                              end - start);
+        } else {
+            return line.subSequence(start, end).toString();
+        }
+    }
+
     /**
      * Determines if the input string is a valid identifier.
      *
@@ -71,7 +95,7 @@ class Lex {
      * @return Indicator of validity of string as identifier.
      */
     boolean isIdentifier(final String s) {
-        return s.matches("[a-zA-Z][\\w|\\d]*");
+        return LineScanner.isIdentifier(s, 0, s.length());
     }
 
     /**
@@ -84,22 +108,14 @@ class Lex {
      */
     int parseReg(final String registerName) {
 
-        if (registerName.matches("r[0-9]")) {
-
-            return registerName.charAt(1) - '0';
-
-        } else if (registerName.matches("r1[0-5]")) {
-
-            return 10 + registerName.charAt(2) - '0';
-
-        } else if (registerName.matches("r[a-f]")) {
-
-            return 10 + registerName.charAt(1) - 'a';
-
-        } else {
+        final int r =
+            LineScanner.register(registerName, 0, registerName.length());
 
+        if (r < 0) {
             errorLog.error("Invalid register name! (%s)", registerName);
             return NAS.INT_ERR;
+        } else {
+            return r;
         }
     }
 
@@ -112,11 +128,12 @@ class Lex {
      * @return Integer value.
      */
     int parseDec(final String s) {
-        try {
-            return Integer.parseInt(s);
-        } catch (NumberFormatException e) {
+        final long n = LineScanner.parseInt(s, 0, s.length(), 10);
+        if (n == LineScanner.INVALID) {
             errorLog.error("Invalid decimal number! (%s)", s);
             return NAS.INT_ERR;
+        } else {
+            return (int) n;
         }
     }
 
@@ -138,8 +155,8 @@ class Lex {
         if (n == NAS.INT_ERR) {
             return n;
         } else if (n < -B || n > (B - 1)) {
-            errorLog.error("Decimal value out of range! (" + s
-                           + ") not in [" + (-B) + "," + (B - 1) + "])");
+            errorLog.error("Decimal value out of range! (%s) not in [%s,%s])",
+                           s, Integer.toString(-B), Integer.toString(B - 1));
             return NAS.INT_ERR;
         } else {
             return (modulus + n) % modulus;
@@ -160,11 +177,12 @@ class Lex {
                            s);
             return NAS.INT_ERR;
         } else {
-            try {
-                return Integer.parseInt(s.substring(2), 16);
-            } catch (NumberFormatException e) {
+            final long n = LineScanner.parseInt(s, 2, s.length(), 16);
+            if (n == LineScanner.INVALID) {
                 errorLog.error("Invalid hexadecimal number! (%s)", s);
                 return NAS.INT_ERR;
+            } else {
+                return (int) n;
             }
         }
     }
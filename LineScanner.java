@@ -0,0 +1,252 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.Arrays;
+
+/**
+ * Hand-written scanner that splits a line of source into token spans
+ * and classifies tokens one character at a time. It never compiles
+ * regular expressions and never allocates per token; the spans are
+ * stored as offsets into the scanned line in arrays that are reused
+ * between lines.
+ */
+final class LineScanner {
+
+    /**
+     * Returned by {@link #parseInt(CharSequence,int,int,int)} if the
+     * span is not a valid integer.
+     */
+    final static long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Start offsets of the tokens of the last scanned line.
+     */
+    int[] starts;
+
+    /**
+     * End offsets (exclusive) of the tokens of the last scanned line.
+     */
+    int[] ends;
+
+    /**
+     * Number of tokens of the last scanned line.
+     */
+    int count;
+
+    /**
+     * Creates a scanner.
+     */
+    LineScanner() {
+        this.starts = new int[8];
+        this.ends = new int[8];
+        this.count = 0;
+    }
+
+    /**
+     * Determines if the character is white space in the sense of the
+     * regular expression class "\s".
+     *
+     * @param c Character.
+     * @return True if the character separates tokens.
+     */
+    static boolean isSpace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n'
+            || c == '\013' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Scans a line. Any comment is stripped, leading and trailing
+     * characters not greater than space are ignored, and the rest is
+     * split into tokens at white space.
+     *
+     * @param line Line to be scanned.
+     * @return Number of tokens found.
+     */
+    int scan(final CharSequence line) {
+        int end = line.length();
+
+        // Strip comments.
+        for (int i = 0; i + 1 < end; i++) {
+            if (line.charAt(i) == '/' && line.charAt(i + 1) == '/') {
+                end = i;
+                break;
+            }
+        }
+
+        // Strip spurious white space at ends of line.
+        int start = 0;
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        count = 0;
+        int i = start;
+        while (i < end) {
+            final int tokenStart = i;
+            while (i < end && !isSpace(line.charAt(i))) {
+                i++;
+            }
+            add(tokenStart, i);
+            while (i < end && isSpace(line.charAt(i))) {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records a token span, growing the arrays if needed.
+     *
+     * @param start Start offset of token.
+     * @param end End offset of token.
+     */
+    private void add(final int start, final int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * count);
+            ends = Arrays.copyOf(ends, 2 * count);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    /**
+     * Determines if the span is a valid identifier, i.e., a letter
+     * followed by letters, digits, underscores, or vertical bars.
+     *
+     * @param s Characters.
+     * @param start Start offset of span.
+     * @param end End offset of span.
+     * @return Indicator of validity of span as identifier.
+     */
+    static boolean isIdentifier(final CharSequence s,
+                                final int start,
+                                final int end) {
+        if (start >= end || !isLetter(s.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            final char c = s.charAt(i);
+            if (!isLetter(c) && !isDigit(c) && c != '_' && c != '|') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the span as a register name of the form "rX", where X
+     * is 0-15 in decimal or a-f, and returns the register index.
+     *
+     * @param s Characters.
+     * @param start Start offset of span.
+     * @param end End offset of span.
+     * @return Register index, or -1 if the span is not a register.
+     */
+    static int register(final CharSequence s,
+                        final int start,
+                        final int end) {
+        final int length = end - start;
+        if (length < 2 || length > 3 || s.charAt(start) != 'r') {
+            return -1;
+        }
+        final char c = s.charAt(start + 1);
+        if (length == 2) {
+            if (isDigit(c)) {
+                return c - '0';
+            } else if ('a' <= c && c <= 'f') {
+                return 10 + c - 'a';
+            } else {
+                return -1;
+            }
+        } else {
+            final char d = s.charAt(start + 2);
+            if (c == '1' && '0' <= d && d <= '5') {
+                return 10 + d - '0';
+            } else {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Parses the span as a signed integer in the given radix with
+     * exactly the same rules as {@link Integer#parseInt(String,int)}.
+     *
+     * @param s Characters.
+     * @param start Start offset of span.
+     * @param end End offset of span.
+     * @param radix Radix of representation.
+     * @return Integer value or {@link #INVALID}.
+     */
+    static long parseInt(final CharSequence s,
+                         final int start,
+                         final int end,
+                         final int radix) {
+        if (start >= end) {
+            return INVALID;
+        }
+
+        boolean negative = false;
+        int limit = -Integer.MAX_VALUE;
+        int i = start;
+
+        final char first = s.charAt(i);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+                limit = Integer.MIN_VALUE;
+            } else if (first != '+') {
+                return INVALID;
+            }
+            if (end - start == 1) {
+                return INVALID;
+            }
+            i++;
+        }
+
+        // Accumulate negatively to handle the minimal value.
+        final int multmin = limit / radix;
+        int result = 0;
+        while (i < end) {
+            final int digit = Character.digit(s.charAt(i++), radix);
+            if (digit < 0 || result < multmin) {
+                return INVALID;
+            }
+            result *= radix;
+            if (result < limit + digit) {
+                return INVALID;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Determines if the character is an ASCII letter.
+     *
+     * @param c Character.
+     * @return True if the character is a letter.
+     */
+    private static boolean isLetter(final char c) {
+        return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z';
+    }
+
+    /**
+     * Determines if the character is an ASCII digit.
+     *
+     * @param c Character.
+     * @return True if the character is a digit.
+     */
+    private static boolean isDigit(final char c) {
+        return '0' <= c && c <= '9';
+    }
+}
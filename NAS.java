@@ -10,8 +10,9 @@ package se.kth.csc.nas;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
@@ -25,12 +26,12 @@ public final class NAS {
     /**
      * Integer representing an error.
      */
-    public static int INT_ERR = Integer.MIN_VALUE;
+    public final static int INT_ERR = Integer.MIN_VALUE;
 
     /**
      * Version of this software.
      */
-    public static String VERSION =
+    public final static String VERSION =
         NAS.class.getPackage().getSpecificationVersion();
 
     /**
@@ -70,12 +71,197 @@ public final class NAS {
                                   final int maxErrors,
                                   final PrintStream errorStream)
         throws IOException {
+        return assemble(label, program, maxErrors, errorStream, null, null);
+    }
+
+    /**
+     * Assembles the input assembly program to a raw executable for
+     * NIC, i.e., the image packed two hexadecimal digits per byte.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param program Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param errorStream Destination of error log.
+     * @return Assembled raw executable.
+     * @throws IOException If there was an IO problem.
+     */
+    public static byte[] assembleRaw(final String label,
+                                     final String program,
+                                     final int maxErrors,
+                                     final PrintStream errorStream)
+        throws IOException {
+        final String executable =
+            assemble(label, program, maxErrors, errorStream);
+        return executable == null ? null : BiWriter.pack(executable);
+    }
+
+    /**
+     * Assembles the input assembly program to an executable for NIC
+     * unless the result is found in the cache.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param program Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param errorStream Destination of error log.
+     * @param cache Cache of executables or null.
+     * @param metrics Metrics filled in while assembling or null.
+     * @return Assembled executable.
+     * @throws IOException If there was an IO problem.
+     */
+    static String assemble(final String label,
+                           final String program,
+                           final int maxErrors,
+                           final PrintStream errorStream,
+                           final ExecutableCache cache,
+                           final AssemblyMetrics metrics)
+        throws IOException {
+        if (cache == null) {
+            final Parser parser = Parser.acquire(maxErrors, metrics, label);
+            try {
+                return assemble(label, parser.parse(program), errorStream);
+            } finally {
+                Parser.release(parser);
+            }
+        } else {
+            final byte[] bytes = program.getBytes(StandardCharsets.UTF_8);
+            return assemble(label, ByteBuffer.wrap(bytes), maxErrors,
+                            errorStream, cache, metrics);
+        }
+    }
 
-        final Parser parser = new Parser(maxErrors);
-        final IntermediateFormat intermediateFormat = parser.parse(program);
+    /**
+     * Assembles the input assembly program encoded in UTF-8 to an
+     * executable for NIC unless the result is found in the cache.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param source Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param errorStream Destination of error log.
+     * @param cache Cache of executables or null.
+     * @param metrics Metrics filled in while assembling or null.
+     * @return Assembled executable.
+     */
+    static String assemble(final String label,
+                           final ByteBuffer source,
+                           final int maxErrors,
+                           final PrintStream errorStream,
+                           final ExecutableCache cache,
+                           final AssemblyMetrics metrics) {
+        return assemble(label, source, maxErrors, errorStream, cache,
+                        metrics, false);
+    }
 
+    /**
+     * Assembles the input assembly program encoded in UTF-8 to an
+     * executable for NIC unless the result is found in the cache,
+     * optionally removing redundant instructions.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param source Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param errorStream Destination of error log.
+     * @param cache Cache of executables or null.
+     * @param metrics Metrics filled in while assembling or null.
+     * @param optimize Indicates that redundant instructions are
+     * removed.
+     * @return Assembled executable.
+     */
+    static String assemble(final String label,
+                           final ByteBuffer source,
+                           final int maxErrors,
+                           final PrintStream errorStream,
+                           final ExecutableCache cache,
+                           final AssemblyMetrics metrics,
+                           final boolean optimize) {
+        if (cache == null) {
+            final Parser parser = Parser.acquire(maxErrors, metrics, label);
+            try {
+                return assemble(label, parser.parseParallel(source),
+                                errorStream, optimize);
+            } finally {
+                Parser.release(parser);
+            }
+        }
+
+        final String key =
+            ExecutableCache.key(source, maxErrors, optimize);
+        String[] entry = cache.get(key);
+        if (entry == null) {
+
+            // Error reports are cached without a label.
+            final Parser parser = Parser.acquire(maxErrors, metrics, label);
+            try {
+                final IntermediateFormat intermediateFormat =
+                    parser.parseParallel(source);
+                final String executable =
+                    assemble(label, intermediateFormat, null, optimize);
+                entry = new String[] {executable,
+                                      intermediateFormat.generateErrors(null)};
+            } finally {
+                Parser.release(parser);
+            }
+            cache.put(key, entry[0], entry[1]);
+        } else if (metrics != null) {
+
+            // Savings of optimization are not cached.
+            metrics.cached = true;
+            metrics.outputBytes =
+                entry[0] == null ? 0 : entry[0].length();
+        }
+
+        if (errorStream != null && !entry[1].equals("")) {
+            errorStream.print(ExecutableCache.relabel(entry[1], label));
+        }
+        return entry[0];
+    }
+
+    /**
+     * Generates the executable from the results of parsing and writes
+     * any errors to the error stream.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param intermediateFormat Results of parsing.
+     * @param errorStream Destination of error log.
+     * @return Assembled executable.
+     */
+    static String assemble(final String label,
+                           final IntermediateFormat intermediateFormat,
+                           final PrintStream errorStream) {
+        return assemble(label, intermediateFormat, errorStream, false);
+    }
+
+    /**
+     * Generates the executable from the results of parsing, optionally
+     * removing redundant instructions first, and writes any errors to
+     * the error stream.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param intermediateFormat Results of parsing.
+     * @param errorStream Destination of error log.
+     * @param optimize Indicates that redundant instructions are
+     * removed.
+     * @return Assembled executable.
+     */
+    static String assemble(final String label,
+                           final IntermediateFormat intermediateFormat,
+                           final PrintStream errorStream,
+                           final boolean optimize) {
         String executable;
         if (intermediateFormat.errorLog.getNoErrors() == 0) {
+            if (optimize) {
+
+                // Removing code may expose more redundant code.
+                int removed;
+                do {
+                    removed = ControlFlowGraph.optimize(intermediateFormat)
+                        + Peephole.optimize(intermediateFormat);
+                } while (removed > 0);
+                DataLayout.optimize(intermediateFormat);
+            }
             executable = intermediateFormat.generateBinary();
         } else {
             executable = null;
@@ -84,6 +270,13 @@ public final class NAS {
         if (errorStream != null && intermediateFormat.getNoErrors() > 0) {
             errorStream.print(intermediateFormat.generateErrors(label));
         }
+
+        final AssemblyMetrics metrics = intermediateFormat.metrics;
+        if (metrics != null) {
+            metrics.count(intermediateFormat);
+            metrics.outputBytes =
+                executable == null ? 0 : executable.length();
+        }
         return executable;
     }
 
@@ -101,60 +294,138 @@ public final class NAS {
                                      final int maxErrors,
                                      final PrintStream errorStream)
         throws IOException {
-        final byte[] inputBytes = Files.readAllBytes(Paths.get(inputFilename));
-        final String program = new String(inputBytes, StandardCharsets.UTF_8);
-        final String executable =
-            assemble(inputFilename, program, maxErrors, errorStream);
+        return assemble(inputFilename, maxErrors, OutputFormat.HEX,
+                        errorStream, null, null);
+    }
+
+    /**
+     * Assembles the input assembly program to an executable for NIC
+     * in the given format.
+     *
+     * @param inputFilename Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param format Format of the executable file.
+     * @param errorStream Destination of error log.
+     * @param cache Cache of executables or null.
+     * @param metrics Metrics filled in while assembling or null.
+     * @return Assembled executable.
+     * @throws IOException If there was an IO problem.
+     */
+    protected static String assemble(final String inputFilename,
+                                     final int maxErrors,
+                                     final OutputFormat format,
+                                     final PrintStream errorStream,
+                                     final ExecutableCache cache,
+                                     final AssemblyMetrics metrics)
+        throws IOException {
+        return assemble(inputFilename, maxErrors, format, errorStream,
+                        cache, metrics, false);
+    }
+
+    /**
+     * Assembles the input assembly program to an executable for NIC
+     * in the given format, optionally removing redundant
+     * instructions.
+     *
+     * @param inputFilename Program to assemble.
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param format Format of the executable file.
+     * @param errorStream Destination of error log.
+     * @param cache Cache of executables or null.
+     * @param metrics Metrics filled in while assembling or null.
+     * @param optimize Indicates that redundant instructions are
+     * removed.
+     * @return Assembled executable.
+     * @throws IOException If there was an IO problem.
+     */
+    protected static String assemble(final String inputFilename,
+                                     final int maxErrors,
+                                     final OutputFormat format,
+                                     final PrintStream errorStream,
+                                     final ExecutableCache cache,
+                                     final AssemblyMetrics metrics,
+                                     final boolean optimize)
+        throws IOException {
+        final ByteBuffer source = Parser.map(Paths.get(inputFilename));
+        final String executable = assemble(inputFilename, source, maxErrors,
+                                           errorStream, cache, metrics,
+                                           optimize);
 
         if (executable != null) {
-            final String outputFilename = outputFilename(inputFilename, ".bi");
-            final byte[] outputBytes =
-                executable.getBytes(StandardCharsets.UTF_8);
-            Files.write(Paths.get(outputFilename), outputBytes,
-                        java.nio.file.StandardOpenOption.CREATE,
-                        java.nio.file.StandardOpenOption.TRUNCATE_EXISTING,
-                        java.nio.file.StandardOpenOption.WRITE);
+            final String outputFilename =
+                outputFilename(inputFilename, format.postfix);
+            byte[] outputBytes;
+            if (format == OutputFormat.RAW) {
+                outputBytes = BiWriter.pack(executable);
+            } else {
+                outputBytes = executable.getBytes(StandardCharsets.UTF_8);
+            }
+            write(outputFilename, outputBytes);
+            if (metrics != null) {
+                metrics.outputBytes = outputBytes.length;
+            }
         }
         return executable;
     }
 
     /**
-     * Assembles the input assembly program to an executable for NIC.
+     * Writes the bytes to the file with a single channel, replacing
+     * any previous content.
+     *
+     * @param outputFilename Name of file.
+     * @param outputBytes Bytes to write.
+     * @throws IOException If there was an IO problem.
+     */
+    static void write(final String outputFilename, final byte[] outputBytes)
+        throws IOException {
+        try (FileChannel fc =
+                 FileChannel.open(Paths.get(outputFilename),
+                                  StandardOpenOption.CREATE,
+                                  StandardOpenOption.TRUNCATE_EXISTING,
+                                  StandardOpenOption.WRITE)) {
+            final ByteBuffer bb = ByteBuffer.wrap(outputBytes);
+            while (bb.hasRemaining()) {
+                fc.write(bb);
+            }
+        }
+    }
+
+    /**
+     * Assembles the input assembly program and writes a Java class
+     * for use with Kattis holding the executable, named "Kattis.java"
+     * and placed next to the input file.
      *
      * @param inputFilename Program to assemble.
      * @param maxErrors Maximal number of errors logged before
      * aborting.
      * @param errorStream Destination of error log.
-     * @return Assembled executable.
+     * @param metrics Metrics filled in while assembling or null.
+     * @param optimize Indicates that redundant instructions are
+     * removed.
+     * @return True if the program was assembled without errors.
      * @throws IOException If there was an IO problem.
      */
     protected static boolean assembleKattis(final String inputFilename,
                                             final int maxErrors,
-                                            final PrintStream errorStream)
+                                            final PrintStream errorStream,
+                                            final AssemblyMetrics metrics,
+                                            final boolean optimize)
         throws IOException {
-        final byte[] inputBytes = Files.readAllBytes(Paths.get(inputFilename));
-        final String program = new String(inputBytes, StandardCharsets.UTF_8);
-
-        final String executable =
-            assemble(inputFilename, program, maxErrors, errorStream);
+        final ByteBuffer source = Parser.map(Paths.get(inputFilename));
+        final String executable = assemble(inputFilename, source, maxErrors,
+                                           errorStream, null, metrics,
+                                           optimize);
         if (executable == null) {
             return false;
         } else {
-            final String outputFilename =
-                outputFilename(inputFilename, ".java");
-
-            final String javaStringConstant =
-                program.replaceAll("\n", "\\n").replaceAll("\"", "\\\"");
-            final String javaProgram =
-                Kattis.PROGRAM_TEMPLATE.replace("PROGRAM_PLACE_HOLDER",
-                                                javaStringConstant);
-            final byte[] outputBytes =
-                javaProgram.getBytes(StandardCharsets.UTF_8);
-            Files.write(Paths.get(outputFilename), outputBytes,
-                        java.nio.file.StandardOpenOption.CREATE,
-                        java.nio.file.StandardOpenOption.TRUNCATE_EXISTING,
-                        java.nio.file.StandardOpenOption.WRITE);
 
+            // The class is public, so the file is named after it.
+            final String outputFilename = Paths.get(inputFilename)
+                .resolveSibling(Kattis.CLASS_NAME + ".java").toString();
+            write(outputFilename,
+                  Kattis.generate(executable).getBytes(StandardCharsets.UTF_8));
             return true;
         }
     }
@@ -174,14 +445,45 @@ public final class NAS {
      * Prints usage information.
      */
     protected static void printUsageInfo() {
-        printExit("nas [-v|-h|-kattis] [-maxerr <number>] [<source>]\n"
+        printExit("nas [-v|-h|-kattis] [-O] [-maxerr <number>] "
+                  + "[-format hex|raw] "
+                  + "[-cache <dir>] [-cachesize <bytes>] "
+                  + "[-steps <number>] "
+                  + "[<source>|-batch <dir|filelist>|-serve <socket>|"
+                  + "-run <source> -tests <dir>]\n"
                   + "-v      Print version.\n"
                   + "-h      Print usage information.\n"
-                  // + "-kattis Output a Java file for use with Kattis.\n"
-                  + "-maxerr Maximal number of errors.",
+                  + "-kattis Output a Java file for use with Kattis.\n"
+                  + "-O      Remove redundant instructions and unused data.\n"
+                  + "-maxerr Maximal number of errors.\n"
+                  + "-format Format of executable, hex text (.bi) or raw "
+                  + "bytes (.bin).\n"
+                  + "-cache  Directory caching executables of sources.\n"
+                  + "-cachesize Maximal size of the cache in bytes.\n"
+                  + "-batch  Assemble all sources in a directory or list.\n"
+                  + "-serve  Serve requests on a Unix domain socket.\n"
+                  + "-run    Assemble a source and run it against tests.\n"
+                  + "-tests  Directory of tests, each a pair of .in and .ans "
+                  + "files.\n"
+                  + "-steps  Maximal number of instructions run by a test.",
                   0);
     }
 
+    /**
+     * Prints the savings of optimization recorded in the metrics.
+     *
+     * @param metrics Metrics or null if the program is not optimized.
+     */
+    static void printSavings(final AssemblyMetrics metrics) {
+        if (metrics != null) {
+            System.out.println(String.format("Optimized: %d bytes saved, %d "
+                                             + "cycles saved per execution "
+                                             + "of the removed code",
+                                             metrics.bytesSaved,
+                                             metrics.cyclesSaved));
+        }
+    }
+
     /**
      * Prints an error message and exits with exit code 1.
      *
@@ -209,23 +511,47 @@ public final class NAS {
                 printUsageInfo();
             } else if (args[0].equals("-v")) {
                 printExit(VERSION, 0);
-            // } else if (args[0].equals("-kattis")) {
-            //     executable = false;
-            //     args = Arrays.copyOfRange(args, 1, args.length);
             }
+        } else if (args[0].equals("-kattis")) {
+            executable = false;
+            args = Arrays.copyOfRange(args, 1, args.length);
+            len = args.length;
         }
 
-        // Handle user provided bound on number of errors.
+        // Handle options.
         int fileIndex = 0;
         int maxErrors = MAX_ERRORS;
-        if (len == 3) {
-            if (args[0].equals("-maxerr")) {
-                fileIndex = 2;
+        String batchPath = null;
+        String socketPath = null;
+        OutputFormat format = OutputFormat.HEX;
+        String cachePath = null;
+        long cacheSize = ExecutableCache.DEFAULT_MAX_BYTES;
+        String runPath = null;
+        String testsPath = null;
+        long maxSteps = Tests.MAX_STEPS;
+        boolean optimize = false;
+        while (fileIndex < len && args[fileIndex].startsWith("-")) {
+
+            // Flags without value.
+            if (args[fileIndex].equals("-O")) {
+                optimize = true;
+                fileIndex++;
+                continue;
+            }
+
+            if (fileIndex + 1 >= len) {
+                e = String.format("Missing value after option! (%s)",
+                                  args[fileIndex]);
+                errorExit(e);
+            }
+            final String value = args[fileIndex + 1];
+
+            if (args[fileIndex].equals("-maxerr")) {
                 try {
-                    maxErrors = Integer.parseInt(args[1]);
+                    maxErrors = Integer.parseInt(value);
                 } catch (NumberFormatException nfe) {
                     e = String.format("Maximal number of errors is not an "
-                                      + "integer! (%s)", args[1]);
+                                      + "integer! (%s)", value);
                     errorExit(e);
                 }
 
@@ -234,14 +560,129 @@ public final class NAS {
                                       maxErrors);
                     errorExit(e);
                 }
+            } else if (args[fileIndex].equals("-batch")) {
+                batchPath = value;
+            } else if (args[fileIndex].equals("-format")) {
+                format = OutputFormat.get(value);
+                if (format == null) {
+                    e = String.format("Unknown format! (%s)", value);
+                    errorExit(e);
+                }
+            } else if (args[fileIndex].equals("-cache")) {
+                cachePath = value;
+            } else if (args[fileIndex].equals("-cachesize")) {
+                try {
+                    cacheSize = Long.parseLong(value);
+                } catch (NumberFormatException nfe) {
+                    e = String.format("Cache size is not an integer! (%s)",
+                                      value);
+                    errorExit(e);
+                }
+
+                if (cacheSize < 0) {
+                    e = String.format("Negative cache size! (%s)", cacheSize);
+                    errorExit(e);
+                }
+            } else if (args[fileIndex].equals("-serve")) {
+                socketPath = value;
+            } else if (args[fileIndex].equals("-run")) {
+                runPath = value;
+            } else if (args[fileIndex].equals("-tests")) {
+                testsPath = value;
+            } else if (args[fileIndex].equals("-steps")) {
+                try {
+                    maxSteps = Long.parseLong(value);
+                } catch (NumberFormatException nfe) {
+                    e = String.format("Maximal number of steps is not an "
+                                      + "integer! (%s)", value);
+                    errorExit(e);
+                }
+                if (maxSteps < 0) {
+                    e = String.format("Negative maximal number of steps! (%s)",
+                                      maxSteps);
+                    errorExit(e);
+                }
             } else {
-                e = String.format("Illegal parameters! (%s %s %s)",
-                                  args[0], args[1], args[2]);
+                e = String.format("Illegal parameters! (%s %s)",
+                                  args[fileIndex], value);
                 errorExit(e);
             }
+            fileIndex += 2;
         }
 
-        if (len - fileIndex > 1) {
+        ExecutableCache cache = null;
+        if (cachePath != null) {
+            try {
+                cache = new ExecutableCache(Paths.get(cachePath), cacheSize);
+            } catch (IOException ioe) {
+                e = String.format("Unable to create cache! (%s)", cachePath);
+                errorExit(e);
+            }
+        }
+
+        // Assemble a single source and run it against many tests.
+        if (runPath != null || testsPath != null) {
+            if (len - fileIndex != 0 || runPath == null || testsPath == null
+                || batchPath != null || socketPath != null) {
+                e = String.format("Too few or many arguments! (%s)", len);
+                errorExit(e);
+            }
+            final AssemblyMetrics metrics =
+                optimize ? new AssemblyMetrics() : null;
+            String runExecutable = null;
+            try {
+                runExecutable =
+                    assemble(runPath, Parser.map(Paths.get(runPath)),
+                             maxErrors, System.out, cache, metrics, optimize);
+            } catch (IOException ioe) {
+                e = String.format("Unable to read input file! (%s)", runPath);
+                errorExit(e);
+            }
+            if (runExecutable == null) {
+                System.exit(1);
+            }
+            printSavings(metrics);
+            try {
+                if (Tests.run(runExecutable, testsPath, maxSteps,
+                              System.out) > 0) {
+                    System.exit(1);
+                }
+            } catch (IOException ioe) {
+                e = String.format("Unable to read tests! (%s)", testsPath);
+                errorExit(e);
+            }
+            return;
+        }
+
+        // Assemble many sources in one process, either as a batch or
+        // as a resident server.
+        if (batchPath != null || socketPath != null) {
+            if (len - fileIndex != 0 || optimize
+                || batchPath != null && socketPath != null) {
+                e = String.format("Too few or many arguments! (%s)", len);
+                errorExit(e);
+            }
+            if (socketPath != null) {
+                try {
+                    Server.serve(socketPath, cache);
+                } catch (IOException ioe) {
+                    e = String.format("Unable to serve on socket! (%s: %s)",
+                                      socketPath, ioe.getMessage());
+                    errorExit(e);
+                }
+            } else {
+                try {
+                    Batch.assemble(Batch.inputFilenames(batchPath), maxErrors,
+                                   format, cache, System.out);
+                } catch (IOException ioe) {
+                    e = String.format("Unable to read batch! (%s)", batchPath);
+                    errorExit(e);
+                }
+            }
+            return;
+        }
+
+        if (len - fileIndex != 1) {
             e = String.format("Too few or many arguments! (%s)", len);
             errorExit(e);
         }
@@ -255,8 +696,19 @@ public final class NAS {
             errorExit(e);
         }
 
+        final AssemblyMetrics metrics = optimize ? new AssemblyMetrics() : null;
         try {
-            assemble(filepath, maxErrors, System.out);
+            boolean assembled;
+            if (executable) {
+                assembled = assemble(filepath, maxErrors, format, System.out,
+                                     cache, metrics, optimize) != null;
+            } else {
+                assembled = assembleKattis(filepath, maxErrors, System.out,
+                                           metrics, optimize);
+            }
+            if (assembled) {
+                printSavings(metrics);
+            }
         } catch (IOException ioe) {
             throw new Error("Internal IO error!", ioe);
         }
@@ -0,0 +1,167 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Assembler service that may be shared by any number of threads.
+ *
+ * <p>
+ *
+ * The configuration of an instance is final and never changes, and
+ * the only other state shared between calls is the table of
+ * operators, which is filled in when its class is initialized and
+ * only read afterwards, and the cache of executables if one is used,
+ * which writes entries to temporary files that are atomically
+ * renamed. Everything else a call needs, i.e., the parser, the
+ * symbol table, the instruction list, and the error log, is either
+ * allocated by the call or taken from a pool of idle parsers, which
+ * hands each parser to a single call until the call returns it, so
+ * it is confined to that call even if the thread runs another call
+ * in the meantime, e.g., a thread of the common pool that waits for
+ * the parallel chunks of a large program. Calls from different
+ * threads, including tasks of the common pool, therefore give the
+ * same results as the same calls made one after another, which is
+ * checked by the ConcurrencyStress harness of the benchmarks.
+ *
+ * <p>
+ *
+ * The error stream of a call is written by that call only, but
+ * concurrent calls sharing an error stream may interleave their
+ * reports.
+ */
+public final class NasAssembler {
+
+    /**
+     * Maximal number of errors logged before aborting.
+     */
+    private final int maxErrors;
+
+    /**
+     * Indicates that redundant instructions and unused data are
+     * removed.
+     */
+    private final boolean optimize;
+
+    /**
+     * Cache of executables or null.
+     */
+    private final ExecutableCache cache;
+
+    /**
+     * Creates an assembler with the default maximal number of errors
+     * that does not optimize.
+     */
+    public NasAssembler() {
+        this(NAS.MAX_ERRORS, false);
+    }
+
+    /**
+     * Creates an assembler.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param optimize Indicates that redundant instructions and
+     * unused data are removed.
+     */
+    public NasAssembler(final int maxErrors, final boolean optimize) {
+        this(maxErrors, optimize, (ExecutableCache) null);
+    }
+
+    /**
+     * Creates an assembler that caches executables in the given
+     * directory, which is created if needed.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param optimize Indicates that redundant instructions and
+     * unused data are removed.
+     * @param cacheDirectory Directory of the cache of executables.
+     * @throws IOException If the directory could not be created.
+     */
+    public NasAssembler(final int maxErrors,
+                        final boolean optimize,
+                        final Path cacheDirectory)
+        throws IOException {
+        this(maxErrors, optimize,
+             new ExecutableCache(cacheDirectory,
+                                 ExecutableCache.DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * Creates an assembler.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param optimize Indicates that redundant instructions and
+     * unused data are removed.
+     * @param cache Cache of executables or null.
+     */
+    NasAssembler(final int maxErrors,
+                 final boolean optimize,
+                 final ExecutableCache cache) {
+        this.maxErrors = maxErrors;
+        this.optimize = optimize;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the maximal number of errors logged before aborting.
+     *
+     * @return Maximal number of errors.
+     */
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Returns true if redundant instructions and unused data are
+     * removed.
+     *
+     * @return True if programs are optimized.
+     */
+    public boolean isOptimizing() {
+        return optimize;
+    }
+
+    /**
+     * Assembles the input assembly program encoded in UTF-8 to an
+     * executable for NIC. The buffer is only read, but it must not be
+     * modified during the call.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param source Program to assemble. Its position is not changed.
+     * @param errorStream Destination of error log or null.
+     * @return Assembled executable, or null if there were errors.
+     */
+    public String assemble(final String label,
+                           final ByteBuffer source,
+                           final PrintStream errorStream) {
+        return NAS.assemble(label, source, maxErrors, errorStream, cache,
+                            null, optimize);
+    }
+
+    /**
+     * Assembles the input assembly program to an executable for NIC.
+     *
+     * @param label Program label, e.g., the filename.
+     * @param program Program to assemble.
+     * @param errorStream Destination of error log or null.
+     * @return Assembled executable, or null if there were errors.
+     */
+    public String assemble(final String label,
+                           final String program,
+                           final PrintStream errorStream) {
+        final byte[] bytes = program.getBytes(StandardCharsets.UTF_8);
+        return assemble(label, ByteBuffer.wrap(bytes), errorStream);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+/**
+ * Formats of executable files.
+ */
+enum OutputFormat {
+
+    /**
+     * Hexadecimal text, two digits per byte, ending with a newline.
+     */
+    HEX("hex", ".bi"),
+
+    /**
+     * Raw bytes of the image, suitable to be loaded with a single
+     * read.
+     */
+    RAW("raw", ".bin");
+
+    /**
+     * Name of this format on the command line.
+     */
+    final String name;
+
+    /**
+     * Postfix of output files in this format.
+     */
+    final String postfix;
+
+    /**
+     * Creates a format with the given name and postfix.
+     *
+     * @param name Name of format.
+     * @param postfix Postfix of output files.
+     */
+    OutputFormat(final String name, final String postfix) {
+        this.name = name;
+        this.postfix = postfix;
+    }
+
+    /**
+     * Returns the format with the given name.
+     *
+     * @param name Name of format.
+     * @return Format or null if there is no format with the name.
+     */
+    static OutputFormat get(final String name) {
+        for (final OutputFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import se.kth.csc.nas.AssemblerEvent.ParseEvent;
+
+/**
+ * Parses a large program in two phases, where the first phase splits
+ * the source into chunks of whole lines and parses the chunks in
+ * parallel on the common fork-join pool, each with its own symbol
+ * table, instruction list, and error log.
+ *
+ * <p>
+ *
+ * The only dependencies between lines are the addresses of labels,
+ * which depend on the number of preceding instructions, and the
+ * checks for names that are already defined. The second phase
+ * therefore computes the prefix sums of the number of lines and
+ * instructions of the chunks, and merges the symbols and errors of
+ * the chunks in order of the source. A symbol already defined by an
+ * earlier chunk is replaced by the error that the sequential parser
+ * reports in its place, and the merge stops as the sequential parser
+ * does when the maximal number of errors is reached. Finally, the
+ * instructions of the chunks are copied in parallel with their
+ * identifiers renumbered, so the results are identical to those of
+ * {@link Parser#parse(ByteBuffer)}.
+ */
+final class ParallelParser {
+
+    /**
+     * Minimal number of bytes of a chunk. Smaller sources are parsed
+     * sequentially.
+     */
+    final static int MIN_CHUNK_BYTES = 1 << 16;
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private ParallelParser() {
+    }
+
+    /**
+     * Parser of a chunk that never aborts due to errors, since errors
+     * may be dropped when chunks are merged, and that records where
+     * in its error log each symbol is defined.
+     */
+    static final class ChunkParser extends Parser {
+
+        /**
+         * Number of errors logged before each defined symbol.
+         */
+        int[] froms;
+
+        /**
+         * Number of errors logged after the values of each defined
+         * symbol were parsed.
+         */
+        int[] tos;
+
+        /**
+         * Line number of each defined symbol.
+         */
+        int[] lineIndices;
+
+        /**
+         * Creates a parser of a chunk.
+         */
+        ChunkParser() {
+            super(Integer.MAX_VALUE);
+            this.froms = new int[16];
+            this.tos = new int[16];
+            this.lineIndices = new int[16];
+        }
+
+        /**
+         * Records the definition of the last symbol if the number of
+         * symbols has grown.
+         *
+         * @param symbols Number of symbols before the definition.
+         * @param errors Number of errors before the definition.
+         */
+        void record(final int symbols, final int errors) {
+            if (symbolTable.symbols.size() == symbols) {
+                return;
+            }
+            if (symbols == froms.length) {
+                froms = Arrays.copyOf(froms, 2 * symbols);
+                tos = Arrays.copyOf(tos, 2 * symbols);
+                lineIndices = Arrays.copyOf(lineIndices, 2 * symbols);
+            }
+            froms[symbols] = errors;
+            tos[symbols] = errorLog.getNoErrors();
+            lineIndices[symbols] = lines.size();
+        }
+
+        @Override
+        void parseLabel(final String s) {
+            final int symbols = symbolTable.symbols.size();
+            final int errors = errorLog.getNoErrors();
+            super.parseLabel(s);
+            record(symbols, errors);
+        }
+
+        @Override
+        void parseDirective(final SymbolType type, final String[] tokens) {
+            final int symbols = symbolTable.symbols.size();
+            final int errors = errorLog.getNoErrors();
+            super.parseDirective(type, tokens);
+            record(symbols, errors);
+        }
+
+        @Override
+        IntermediateFormat finish(final long start,
+                                  final long tokenizeNanos,
+                                  final ParseEvent event) {
+
+            // The results are merged from the fields.
+            return null;
+        }
+    }
+
+    /**
+     * Returns the offsets at which the chunks of the source start,
+     * followed by the limit of the source. Each chunk starts at the
+     * start of a line, and "\r\n" is never split.
+     *
+     * @param source Assembler source.
+     * @param chunks Number of chunks.
+     * @return Offsets of chunks.
+     */
+    static int[] boundaries(final ByteBuffer source, final int chunks) {
+        final int start = source.position();
+        final int limit = source.limit();
+
+        final int[] boundaries = new int[chunks + 1];
+        boundaries[0] = start;
+        for (int c = 1; c < chunks; c++) {
+            final long guess = start + (long) (limit - start) * c / chunks;
+            int p = Math.max(boundaries[c - 1], (int) guess);
+
+            // Move to the start of the next line.
+            while (p < limit && source.get(p) != '\n'
+                   && source.get(p) != '\r') {
+                p++;
+            }
+            if (p + 1 < limit && source.get(p) == '\r'
+                && source.get(p + 1) == '\n') {
+                p += 2;
+            } else if (p < limit) {
+                p++;
+            }
+            boundaries[c] = p;
+        }
+        boundaries[chunks] = limit;
+        return boundaries;
+    }
+
+    /**
+     * Appends an error to the log.
+     *
+     * @param errorLog Error log.
+     * @param lineIndex Line at which the error occured.
+     * @param params Strings of which the first is a format.
+     * @param throwable Exception that triggered the error or null.
+     * @return True if the maximal number of errors is reached.
+     */
+    static boolean log(final ErrorLog errorLog,
+                       final int lineIndex,
+                       final String[] params,
+                       final Throwable throwable) {
+        errorLog.errorEntries.add(new ErrorEntry(lineIndex, params,
+                                                 throwable));
+        if (errorLog.errorEntries.size() >= errorLog.maxErrors) {
+            errorLog.tooManyErrors = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of chunks in which the remaining bytes of the
+     * buffer are parsed. Small programs are parsed sequentially, and
+     * so is every program if the common pool has a single thread,
+     * since merging the chunks is then pure overhead.
+     *
+     * @param source Assembler source.
+     * @return Number of chunks.
+     */
+    static int chunks(final ByteBuffer source) {
+        final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        return parallelism < 2
+            ? 1
+            : Math.min(4 * parallelism, source.remaining() / MIN_CHUNK_BYTES);
+    }
+
+    /**
+     * Parses the assembler program in the remaining bytes of the
+     * buffer with the given parser, which must be empty, in the
+     * number of chunks given by {@link #chunks(ByteBuffer)}.
+     *
+     * <p>
+     *
+     * The calling thread joins the tasks of the chunks, and a thread
+     * of the common pool may run unrelated tasks while it joins, so
+     * the parser must not be one that such a task could reuse, e.g.,
+     * a parser kept per thread, if there are two or more chunks.
+     *
+     * @param parser Parser holding the results.
+     * @param source Assembler source.
+     * @return Parsing results.
+     */
+    static IntermediateFormat parse(final Parser parser,
+                                    final ByteBuffer source) {
+        return parse(parser, source, chunks(source));
+    }
+
+    /**
+     * Parses the assembler program in the remaining bytes of the
+     * buffer in the given number of chunks with the given parser,
+     * which must be empty.
+     *
+     * @param parser Parser holding the results.
+     * @param source Assembler source.
+     * @param chunks Number of chunks.
+     * @return Parsing results.
+     */
+    static IntermediateFormat parse(final Parser parser,
+                                    final ByteBuffer source,
+                                    final int chunks) {
+        if (chunks < 2) {
+            return parser.parse(source);
+        }
+
+        final ParseEvent event = new ParseEvent();
+        event.begin();
+        final long start = parser.startTime();
+        final long tokenizeNanos = parser.tokenizeNanos();
+
+        // Phase one: parse the chunks in parallel.
+        final int[] boundaries = boundaries(source, chunks);
+        final ChunkParser[] parsers = new ChunkParser[chunks];
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int c = 0; c < chunks; c++) {
+            final ChunkParser chunkParser = new ChunkParser();
+            final ByteBuffer chunk = source.duplicate();
+            chunk.limit(boundaries[c + 1]).position(boundaries[c]);
+            parsers[c] = chunkParser;
+            tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                    public void run() {
+                        chunkParser.parse(chunk);
+                    }
+                }));
+        }
+        for (final ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        // Prefix sums of the number of lines and instructions give
+        // the line numbers and addresses at which the chunks start.
+        final int[] lineStarts = new int[chunks + 1];
+        final int[] instructionStarts = new int[chunks + 1];
+        for (int c = 0; c < chunks; c++) {
+            lineStarts[c + 1] = lineStarts[c] + parsers[c].lines.size();
+            instructionStarts[c + 1] =
+                instructionStarts[c] + parsers[c].instructionList.size();
+        }
+
+        // Phase two: merge names, symbols, and errors in order.
+        final SymbolTable symbolTable = parser.symbolTable;
+        final ErrorLog errorLog = parser.errorLog;
+        final int[][] ids = new int[chunks][];
+        int merged = 0;
+        int stopLine = -1;
+
+        merge:
+        for (; merged < chunks; merged++) {
+            final ChunkParser chunkParser = parsers[merged];
+            final SymbolTable chunkTable = chunkParser.symbolTable;
+            final List<ErrorEntry> entries =
+                chunkParser.errorLog.errorEntries;
+            final int lineOffset = lineStarts[merged];
+
+            // Names are interned in order of first use as by the
+            // sequential parser.
+            ids[merged] = new int[chunkTable.noNames];
+            for (int id = 0; id < chunkTable.noNames; id++) {
+                ids[merged][id] = symbolTable.intern(chunkTable.name(id));
+            }
+
+            final int definitions = chunkTable.symbols.size();
+            int e = 0;
+            for (int d = 0; d <= definitions; d++) {
+
+                // Errors preceding the definition.
+                final int from =
+                    d < definitions ? chunkParser.froms[d] : entries.size();
+                for (; e < from; e++) {
+                    final ErrorEntry entry = entries.get(e);
+                    final int lineIndex = entry.lineIndex < 0
+                        ? entry.lineIndex : entry.lineIndex + lineOffset;
+                    if (log(errorLog, lineIndex, entry.params,
+                            entry.throwable)) {
+                        stopLine = lineIndex;
+                        break merge;
+                    }
+                }
+                if (d == definitions) {
+                    break;
+                }
+
+                final Symbol symbol = chunkTable.symbols.get(d);
+                final int lineIndex = chunkParser.lineIndices[d] + lineOffset;
+                if (symbolTable.get(symbol.name) != null) {
+
+                    // The sequential parser reports this in place of
+                    // any errors in the values of a directive.
+                    final String[] params = symbol.type == SymbolType.LABEL
+                        ? new String[] {"Name already defined! (%s)",
+                                        symbol.name}
+                        : new String[] {"Name already defined",
+                                        symbol.name};
+                    if (log(errorLog, lineIndex, params, null)) {
+                        stopLine = lineIndex;
+                        break merge;
+                    }
+                } else {
+                    for (; e < chunkParser.tos[d]; e++) {
+                        final ErrorEntry entry = entries.get(e);
+                        if (log(errorLog, entry.lineIndex + lineOffset,
+                                entry.params, entry.throwable)) {
+                            stopLine = entry.lineIndex + lineOffset;
+                            break merge;
+                        }
+                    }
+                    if (symbol.type == SymbolType.LABEL) {
+                        symbol.setAddress(symbol.address
+                                          + 4 * instructionStarts[merged]);
+                    }
+                    symbolTable.put(symbol);
+                }
+                e = chunkParser.tos[d];
+            }
+        }
+
+        // The sequential parser stops at the line of the last error
+        // if there are too many, where no instruction has been added.
+        final int noChunks = Math.min(merged + 1, chunks);
+        if (merged < chunks) {
+            final ChunkParser chunkParser = parsers[merged];
+            final int noLines = Math.max(stopLine - lineStarts[merged], 0);
+            final InstructionList il = chunkParser.instructionList;
+            int n = 0;
+            while (n < il.size() && il.lineIndices[n] < noLines) {
+                n++;
+            }
+            il.size = n;
+            chunkParser.lines.noOffsets = noLines;
+        }
+
+        final SourceLines lines = parser.lines;
+        lines.reset(source);
+        for (int c = 0; c < noChunks; c++) {
+            lines.append(parsers[c].lines, parsers[c].lines.size());
+        }
+
+        // Copy the instructions in parallel.
+        final InstructionList instructionList = parser.instructionList;
+        instructionList.resize(instructionStarts[noChunks - 1]
+                               + parsers[noChunks - 1].instructionList.size());
+        tasks.clear();
+        for (int c = 0; c < noChunks; c++) {
+            final InstructionList il = parsers[c].instructionList;
+            final int index = instructionStarts[c];
+            final int lineOffset = lineStarts[c];
+            final int[] chunkIds = ids[c];
+            tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                    public void run() {
+                        instructionList.copy(il, index, lineOffset, chunkIds);
+                    }
+                }));
+        }
+        for (final ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        return parser.finish(start, tokenizeNanos, event);
+    }
+}
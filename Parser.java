@@ -9,10 +9,17 @@ package se.kth.csc.nas;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import se.kth.csc.nas.AssemblerEvent.ParseEvent;
+import se.kth.csc.nas.AssemblyMetrics.Phase;
 
 /**
  * Parser for assembler source files.
@@ -27,7 +34,7 @@ public class Parser {
     /**
      * Lines of source code.
      */
-    final List<String> lines;
+    final SourceLines lines;
 
     /**
      * Error log.
@@ -49,6 +56,29 @@ public class Parser {
      */
     final Lex lex;
 
+    /**
+     * Metrics filled in while parsing or null.
+     */
+    AssemblyMetrics metrics;
+
+    /**
+     * Program label used in flight recorder events, or null.
+     */
+    String label;
+
+    /**
+     * Maximal number of idle parsers kept for reuse.
+     */
+    final static int POOL_SIZE =
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Idle parsers handed out by {@link #acquire(int, AssemblyMetrics,
+     * String)}.
+     */
+    private final static ArrayBlockingQueue<Parser> POOL =
+        new ArrayBlockingQueue<Parser>(POOL_SIZE);
+
     /**
      * Creates a parser with the given error log.
      *
@@ -56,11 +86,155 @@ public class Parser {
      * aborting.
      */
     public Parser(final int maxErrors) {
-        this.lines = new ArrayList<String>();
+        this(maxErrors, null, null);
+    }
+
+    /**
+     * Creates a parser with the given error log that fills in the
+     * given metrics.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param metrics Metrics filled in while parsing and generating
+     * binary code, or null.
+     * @param label Program label, e.g., the filename, or null.
+     */
+    public Parser(final int maxErrors,
+                  final AssemblyMetrics metrics,
+                  final String label) {
+        this.lines = new SourceLines();
         this.errorLog = new ErrorLog(lines, maxErrors);
         this.symbolTable = new SymbolTable();
         this.instructionList = new InstructionList(errorLog);
         this.lex = new Lex(BLOCKSIZE, errorLog);
+        this.metrics = metrics;
+        this.label = label;
+    }
+
+    /**
+     * Clears this parser for use with another program. The arrays of
+     * the lines, the symbol table, and the instruction list are kept
+     * at their current size, so a parser that is reused for similar
+     * programs eventually stops allocating them.
+     *
+     * <p>
+     *
+     * Parsing results share their contents with the parser, so they
+     * must not be used after the parser is reset.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param metrics Metrics filled in while parsing and generating
+     * binary code, or null.
+     * @param label Program label, e.g., the filename, or null.
+     */
+    public void reset(final int maxErrors,
+                      final AssemblyMetrics metrics,
+                      final String label) {
+        lines.reset();
+        errorLog.reset(maxErrors);
+        symbolTable.reset();
+        instructionList.reset();
+        this.metrics = metrics;
+        this.label = label;
+    }
+
+    /**
+     * Returns an idle parser after resetting it, or a new parser if
+     * there is none. The caller owns the parser, whichever thread it
+     * runs on, until it hands it back with {@link #release(Parser)}
+     * once the results of parsing are no longer used.
+     *
+     * @param maxErrors Maximal number of errors logged before
+     * aborting.
+     * @param metrics Metrics filled in while parsing and generating
+     * binary code, or null.
+     * @param label Program label, e.g., the filename, or null.
+     * @return Empty parser.
+     */
+    public static Parser acquire(final int maxErrors,
+                                 final AssemblyMetrics metrics,
+                                 final String label) {
+        final Parser parser = POOL.poll();
+        if (parser == null) {
+            return new Parser(maxErrors, metrics, label);
+        }
+        parser.reset(maxErrors, metrics, label);
+        return parser;
+    }
+
+    /**
+     * Hands back a parser returned by {@link #acquire(int,
+     * AssemblyMetrics, String)}. The parser is reset, so it no longer
+     * refers to the source, e.g., a mapped file, and it is kept for
+     * reuse unless enough parsers are idle already.
+     *
+     * @param parser Parser that is no longer used.
+     */
+    public static void release(final Parser parser) {
+        parser.reset(parser.errorLog.maxErrors, null, null);
+        POOL.offer(parser);
+    }
+
+    /**
+     * Tokenizes the given line and records the time spent if metrics
+     * are filled in.
+     *
+     * @param line Line of input.
+     * @return Tokens or null if the line is empty.
+     */
+    String[] tokenize(final CharSequence line) {
+        if (metrics == null) {
+            return lex.tokenizeLine(line);
+        } else {
+            final long start = System.nanoTime();
+            final String[] tokens = lex.tokenizeLine(line);
+            metrics.add(Phase.TOKENIZE, System.nanoTime() - start);
+            return tokens;
+        }
+    }
+
+    /**
+     * Returns the time spent tokenizing so far if metrics are filled
+     * in.
+     *
+     * @return Nanoseconds spent tokenizing, or zero.
+     */
+    long tokenizeNanos() {
+        return metrics == null ? 0 : metrics.getNanos(Phase.TOKENIZE);
+    }
+
+    /**
+     * Returns the current time if metrics are filled in.
+     *
+     * @return Current time in nanoseconds, or zero.
+     */
+    long startTime() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the time spent parsing since the given time, excluding
+     * tokenizing, and returns the parsing results.
+     *
+     * @param start Time at which parsing started.
+     * @param tokenizeNanos Time spent tokenizing before parsing
+     * started.
+     * @param event Event begun when parsing started.
+     * @return Parsing results.
+     */
+    IntermediateFormat finish(final long start,
+                              final long tokenizeNanos,
+                              final ParseEvent event) {
+        if (metrics != null) {
+            final long tokenized = tokenizeNanos() - tokenizeNanos;
+            metrics.add(Phase.PARSE, System.nanoTime() - start - tokenized);
+        }
+        final IntermediateFormat intermediateFormat =
+            new IntermediateFormat(lines, errorLog, symbolTable,
+                                   instructionList, metrics, label);
+        event.commit(intermediateFormat);
+        return intermediateFormat;
     }
 
     /**
@@ -107,9 +281,7 @@ public class Parser {
                 throw new Error("Illegal invocation! This is a bug!");
             }
 
-            final Instruction ins =
-                new Instruction(lines.size(), operator, 0, 0, t, null);
-            instructionList.add(ins);
+            instructionList.add(lines.size(), operator, 0, 0, t, null);
 
         } else if (tokens.length > 1) {
 
@@ -172,7 +344,9 @@ public class Parser {
         // associated with a value.
         } else if (name.equals("") || lex.isIdentifier(name)) {
 
-            return new Value(name, n, offset);
+            final int id = name.equals("")
+                ? SymbolTable.NO_ID : symbolTable.intern(name);
+            return new Value(id, n, offset);
 
         // Name is not an identifier at all and can not be associated
         // with a value anywhere else.
@@ -196,9 +370,7 @@ public class Parser {
                 return;
             } else {
                 v.useHexFormat();
-                final Instruction ins =
-                    new Instruction(lines.size(), operator, 0, 0, 0, v);
-                instructionList.add(ins);
+                instructionList.add(lines.size(), operator, 0, 0, 0, v);
             }
         } else {
             errorLog.error("Need exactly one value after operator! (%s)",
@@ -235,9 +407,7 @@ public class Parser {
                     break;
                 }
 
-                final Instruction ins =
-                    new Instruction(lines.size(), operator, r, 0, 0, v);
-                instructionList.add(ins);
+                instructionList.add(lines.size(), operator, r, 0, 0, v);
             }
         } else {
             errorLog.error("Need register and value after operator! (%s)",
@@ -258,9 +428,7 @@ public class Parser {
             final int s = lex.parseReg(tokens[2]);
 
             if (r != NAS.INT_ERR && s != NAS.INT_ERR) {
-                final Instruction ins =
-                    new Instruction(lines.size(), operator, 0, r, s, null);
-                instructionList.add(ins);
+                instructionList.add(lines.size(), operator, 0, r, s, null);
             }
         } else {
             errorLog.error("Need two registers after operator! (%s)",
@@ -282,9 +450,7 @@ public class Parser {
             final int t = lex.parseReg(tokens[3]);
 
             if (r != NAS.INT_ERR && s != NAS.INT_ERR && t != NAS.INT_ERR) {
-                final Instruction ins =
-                    new Instruction(lines.size(), operator, r, s, t, null);
-                instructionList.add(ins);
+                instructionList.add(lines.size(), operator, r, s, t, null);
             }
         } else {
             errorLog.error("Need three registers after operator! (%s)",
@@ -366,9 +532,7 @@ public class Parser {
      */
     void parseDirective(final SymbolType type, final String[] tokens) {
         if (tokens.length < 2) {
-            final String e =
-                String.format("Need name after directive! (%s)", tokens[0]);
-            errorLog.error(e);
+            errorLog.error("Need name after directive! (%s)", tokens[0]);
             return;
         }
 
@@ -437,52 +601,199 @@ public class Parser {
     }
 
     /**
-     * Parses the assembler program.
+     * Parses the assembler program. The source is read completely
+     * and parsed as a sequence of characters.
      *
      * @param source Assembler source.
      */
     public IntermediateFormat parse(final BufferedReader source)
         throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final char[] chars = new char[8192];
+        int n;
+        while ((n = source.read(chars)) > 0) {
+            sb.append(chars, 0, n);
+        }
+        return parse(sb);
+    }
+
+    /**
+     * Parses the assembler program in the given characters. Lines
+     * are only stored as offsets into the characters, and are sliced
+     * out if the error log asks for them.
+     *
+     * @param source Assembler source, which must not be modified
+     * while the parsing results are used.
+     */
+    public IntermediateFormat parse(final CharSequence source) {
 
-        String line = source.readLine();
+        final ParseEvent event = new ParseEvent();
+        event.begin();
+        final long start = startTime();
+        final long tokenizeNanos = tokenizeNanos();
+
+        // Each line is copied into an array, so its tokens are
+        // copied directly from the array into strings.
+        char[] chars = new char[128];
+        CharBuffer line = CharBuffer.wrap(chars);
+        final int limit = source.length();
+        int position = 0;
+
+        lines.reset(source);
 
         try {
-            while (line != null) {
-                lines.add(line);
+            while (position < limit) {
+
+                // Find the end of the line.
+                int end = position;
+                char c;
+                while (end < limit
+                       && (c = source.charAt(end)) != '\n' && c != '\r') {
+                    end++;
+                }
+                lines.add(position, end);
+
+                final int n = end - position;
+                if (chars.length < n) {
+                    chars = new char[Math.max(n, 2 * chars.length)];
+                    line = CharBuffer.wrap(chars);
+                }
+                if (source instanceof String) {
+                    ((String) source).getChars(position, end, chars, 0);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        chars[i] = source.charAt(position + i);
+                    }
+                }
+                line.limit(n).position(0);
 
-                String[] tokens = lex.tokenizeLine(line);
+                String[] tokens = tokenize(line);
                 if (tokens != null) {
                     parseLine(tokens);
                 }
-                line = source.readLine();
+
+                // Skip the line terminator, which is "\n", "\r", or
+                // "\r\n" as for a buffered reader.
+                if (end + 1 < limit && source.charAt(end) == '\r'
+                    && source.charAt(end + 1) == '\n') {
+                    position = end + 2;
+                } else {
+                    position = end + 1;
+                }
             }
         } catch (TooManyErrorsException tmee) {
         }
 
-        return new IntermediateFormat(lines, errorLog, symbolTable,
-                                      instructionList);
+        return finish(start, tokenizeNanos, event);
     }
 
     /**
-     * Parses the assembler program and returns the resulting symbol
-     * table and list of instructions.
+     * Parses the assembler program in the remaining bytes of the
+     * buffer, which must be encoded in UTF-8. Lines are scanned in
+     * place and only decoded if they contain non-ASCII characters or
+     * if the error log asks for them.
      *
      * @param source Assembler source.
      */
-    public IntermediateFormat parse(final String source) throws IOException {
-        final StringReader sr = new StringReader(source);
-        BufferedReader br = null;
-        IntermediateFormat inf = null;
+    public IntermediateFormat parse(final ByteBuffer source) {
+
+        final ParseEvent event = new ParseEvent();
+        event.begin();
+        final long start = startTime();
+        final long tokenizeNanos = tokenizeNanos();
+
+        final AsciiSequence ascii = new AsciiSequence(source);
+        final int limit = source.limit();
+        int position = source.position();
+
+        lines.reset(source);
+
         try {
-            br = new BufferedReader(sr);
-            inf = parse(br);
-        } catch (final IOException ioe) {
-            errorLog.error(ioe, "Unable to read from source string!");
-        } finally {
-            if (br != null) {
-                br.close();
+            while (position < limit) {
+
+                // Find the end of the line and note if it is ASCII.
+                int end = position;
+                boolean isAscii = true;
+                byte b;
+                while (end < limit
+                       && (b = source.get(end)) != '\n' && b != '\r') {
+                    isAscii &= b >= 0;
+                    end++;
+                }
+                lines.add(position, end);
+
+                CharSequence line;
+                if (isAscii) {
+                    line = ascii.set(position, end);
+                } else {
+                    line = lines.get(lines.size() - 1);
+                }
+
+                String[] tokens = tokenize(line);
+                if (tokens != null) {
+                    parseLine(tokens);
+                }
+
+                // Skip the line terminator, which is "\n", "\r", or
+                // "\r\n" as for a buffered reader.
+                if (end + 1 < limit && source.get(end) == '\r'
+                    && source.get(end + 1) == '\n') {
+                    position = end + 2;
+                } else {
+                    position = end + 1;
+                }
             }
+        } catch (TooManyErrorsException tmee) {
+        }
+
+        return finish(start, tokenizeNanos, event);
+    }
+
+    /**
+     * Parses the assembler program in the remaining bytes of the
+     * buffer like {@link #parse(ByteBuffer)}, but chunks of lines of
+     * a large program are parsed in parallel. The results are
+     * identical. This parser must not have parsed anything since it
+     * was created or reset.
+     *
+     * @param source Assembler source.
+     */
+    public IntermediateFormat parseParallel(final ByteBuffer source) {
+        return ParallelParser.parse(this, source);
+    }
+
+    /**
+     * Parses the assembler program in the given file, which is mapped
+     * into memory instead of being read.
+     *
+     * @param path Path to assembler source.
+     * @throws IOException If the file could not be mapped.
+     */
+    public IntermediateFormat parse(final Path path) throws IOException {
+        return parse(map(path));
+    }
+
+    /**
+     * Maps the given file into memory.
+     *
+     * @param path Path to file.
+     * @return Read-only buffer holding the content of the file.
+     * @throws IOException If the file could not be mapped.
+     */
+    static MappedByteBuffer map(final Path path) throws IOException {
+        try (FileChannel fc =
+                 FileChannel.open(path, StandardOpenOption.READ)) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
         }
-        return inf;
+    }
+
+    /**
+     * Parses the assembler program and returns the resulting symbol
+     * table and list of instructions.
+     *
+     * @param source Assembler source.
+     */
+    public IntermediateFormat parse(final String source) throws IOException {
+        return parse((CharSequence) source);
     }
 }
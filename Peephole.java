@@ -0,0 +1,295 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.Arrays;
+
+/**
+ * Peephole optimizer that removes redundant instructions from the
+ * parsing results before binary code is generated. The following
+ * instructions are removed:
+ *
+ * <ul>
+ * <li> "addc rX 0",
+ * <li> "move rX rX",
+ * <li> "noop",
+ * <li> "loadc rX c" if the next instruction overwrites rX without
+ *      reading it, and
+ * <li> jumps to the next instruction.
+ * </ul>
+ *
+ * The rules are applied until none applies, since removing an
+ * instruction may turn a jump into a jump to the next instruction.
+ * Labels are then moved as if the kept instructions had been parsed
+ * alone, and the data following the code is relocated as usual.
+ *
+ * <p>
+ *
+ * Removing instructions moves code and data, so the pass bails out
+ * without changes if the program may depend on an address that it
+ * does not name symbolically: a label used as data, a label with an
+ * offset used as a jump target, a jump into data, which may hold
+ * absolute addresses when executed, an explicit address of a moved
+ * cell, or any indirect load or store, since a pointer may be held
+ * in a word or computed with arithmetic.
+ */
+final class Peephole {
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Peephole() {
+    }
+
+    /**
+     * Returns true if the instruction with the given index overwrites
+     * the given register without reading it.
+     *
+     * @param il Instructions.
+     * @param i Index of instruction.
+     * @param r Register index.
+     * @return True if the register is overwritten without being read.
+     */
+    static boolean overwrites(final InstructionList il,
+                              final int i,
+                              final int r) {
+        switch (il.operator(i)) {
+        case LOAD:
+        case LOADC:
+            return il.rs[i] == r;
+        case LOADR:
+        case MOVE:
+            return il.ss[i] == r && il.ts[i] != r;
+        case ADD:
+        case MUL:
+        case SUB:
+        case SHIFT:
+        case AND:
+        case OR:
+        case XOR:
+            return il.rs[i] == r && il.ss[i] != r && il.ts[i] != r;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the operator is a jump.
+     *
+     * @param operator Operator.
+     * @return True if the operator is a jump.
+     */
+    static boolean isJump(final Operator operator) {
+        switch (operator) {
+        case JUMP:
+        case JUMPE:
+        case JUMPN:
+        case JUMPL:
+        case JUMPLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index of the first kept instruction following the
+     * given index, or the number of instructions if there is none.
+     *
+     * @param keep Indicates the kept instructions.
+     * @param i Index of instruction.
+     * @return Index of next kept instruction.
+     */
+    static int next(final boolean[] keep, final int i) {
+        int k = i + 1;
+        while (k < keep.length && !keep[k]) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Returns the index of the first kept instruction at or after the
+     * given index, or the number of instructions if there is none.
+     *
+     * @param keep Indicates the kept instructions.
+     * @param i Index of instruction.
+     * @return Index of kept instruction.
+     */
+    static int kept(final boolean[] keep, final int i) {
+        return next(keep, i - 1);
+    }
+
+    /**
+     * Returns true if the instruction with the given index is
+     * redundant given the instructions kept so far.
+     *
+     * @param il Instructions.
+     * @param targets Indices of instructions targeted by jumps, or -1.
+     * @param keep Indicates the kept instructions.
+     * @param i Index of instruction.
+     * @return True if the instruction is redundant.
+     */
+    static boolean redundant(final InstructionList il,
+                             final int[] targets,
+                             final boolean[] keep,
+                             final int i) {
+        final boolean explicit = il.ids[i] == SymbolTable.NO_ID;
+
+        switch (il.operator(i)) {
+        case NOOP:
+            return true;
+        case ADDC:
+            return explicit && il.constants[i] == 0;
+        case MOVE:
+            return il.ss[i] == il.ts[i];
+        case LOADC:
+            final int k = next(keep, i);
+            return k < il.size() && overwrites(il, k, il.rs[i]);
+        case JUMP:
+        case JUMPE:
+        case JUMPN:
+        case JUMPL:
+        case JUMPLE:
+            return targets[i] >= 0
+                && kept(keep, targets[i]) == next(keep, i);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the indices of the instructions targeted by the jumps to
+     * labels of the parsing results, or null if the program may
+     * depend on an address that it does not name symbolically in a
+     * way that is detected without knowing which instructions are
+     * removed.
+     *
+     * @param intermediateFormat Parsing results.
+     * @return Index of the target of each instruction, or -1 if the
+     * instruction is not a jump to a label, or null.
+     */
+    static int[] targets(final IntermediateFormat intermediateFormat) {
+        final InstructionList il = intermediateFormat.instructionList;
+        final SymbolTable symbolTable = intermediateFormat.symbolTable;
+        final int size = il.size();
+
+        final int[] targets = new int[size];
+        for (int i = 0; i < size; i++) {
+            targets[i] = -1;
+
+            final int id = il.ids[i];
+            if (id == SymbolTable.NO_ID) {
+                continue;
+            }
+            final Symbol symbol = symbolTable.get(id);
+            if (symbol == null) {
+                return null;
+            }
+            if (symbol.type == SymbolType.LABEL) {
+                if (!isJump(il.operator(i))
+                    || il.constants[i] + il.offsets[i] != 0) {
+                    return null;
+                }
+                targets[i] = symbol.address / 4;
+            } else if (isJump(il.operator(i))) {
+
+                // Executed data may hold absolute addresses.
+                return null;
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Removes the instructions that are not kept from the parsing
+     * results unless an explicit address may refer to a moved cell.
+     *
+     * @param intermediateFormat Parsing results.
+     * @param keep Indicates the instructions to keep.
+     * @return Number of removed instructions.
+     */
+    static int compact(final IntermediateFormat intermediateFormat,
+                       final boolean[] keep) {
+        final InstructionList il = intermediateFormat.instructionList;
+        final int size = il.size();
+
+        int first = 0;
+        while (first < size && keep[first]) {
+            first++;
+        }
+        if (first == size) {
+            return 0;
+        }
+
+        // A pointer used by an indirect load or store may be held in
+        // a word or computed, so it is never known to be unmoved.
+        for (int i = 0; i < size; i++) {
+            final Operator operator = il.operator(i);
+            if (operator == Operator.LOADR || operator == Operator.STORER) {
+                return 0;
+            }
+        }
+
+        // Explicit addresses below the first removed instruction are
+        // not moved.
+        final int moved = 4 * first;
+        for (int i = 0; i < size; i++) {
+            if (il.ids[i] != SymbolTable.NO_ID) {
+                continue;
+            }
+            final Operator operator = il.operator(i);
+            final boolean address = isJump(operator)
+                || operator == Operator.LOAD || operator == Operator.STORE;
+            if (address && il.constants[i] >= moved) {
+                return 0;
+            }
+        }
+
+        return il.compact(keep, intermediateFormat.symbolTable);
+    }
+
+    /**
+     * Removes redundant instructions from the parsing results, which
+     * must be free of errors, and records the savings in the metrics
+     * if there are any.
+     *
+     * @param intermediateFormat Parsing results.
+     * @return Number of removed instructions.
+     */
+    static int optimize(final IntermediateFormat intermediateFormat) {
+        final InstructionList il = intermediateFormat.instructionList;
+        final int size = il.size();
+
+        final int[] targets = targets(intermediateFormat);
+        if (targets == null) {
+            return 0;
+        }
+
+        final boolean[] keep = new boolean[size];
+        Arrays.fill(keep, true);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < size; i++) {
+                if (keep[i] && redundant(il, targets, keep, i)) {
+                    keep[i] = false;
+                    changed = true;
+                }
+            }
+        }
+
+        final int removed = compact(intermediateFormat, keep);
+
+        final AssemblyMetrics metrics = intermediateFormat.metrics;
+        if (metrics != null) {
+            metrics.bytesSaved += 4 * removed;
+            metrics.cyclesSaved += removed;
+        }
+        return removed;
+    }
+}
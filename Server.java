@@ -0,0 +1,263 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resident assembler that serves requests over a Unix domain socket,
+ * which avoids paying for the startup of a virtual machine for every
+ * program.
+ *
+ * <p>
+ *
+ * A connection carries any number of requests, each answered by a
+ * reply before the next request is read. All integers are written
+ * in big-endian order and all strings are encoded in UTF-8.
+ *
+ * <p>
+ *
+ * Request: maximal number of errors (int), length of label (int, or
+ * -1 if there is no label), label, length of source (int), source.
+ *
+ * <p>
+ *
+ * Reply: length of executable (int, or -1 if no executable was
+ * generated), executable, length of error report (int), error report.
+ */
+final class Server {
+
+    /**
+     * Maximal length of a label or source accepted by the server.
+     */
+    final static int MAX_LENGTH = 1 << 24;
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Server() {
+    }
+
+    /**
+     * Returns an executor that runs each task in a new virtual
+     * thread if the runtime supports it, and in a pooled platform
+     * thread otherwise.
+     *
+     * @return Executor for connections.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (final ReflectiveOperationException roe) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Reads a length-prefixed string. The length is checked before
+     * any space is allocated for the string.
+     *
+     * @param dis Source of the string.
+     * @param maxLength Maximal length in bytes of the string.
+     * @return String or null if the length is negative.
+     * @throws IOException If the string could not be read or is too
+     * long.
+     */
+    static String readString(final DataInputStream dis, final int maxLength)
+        throws IOException {
+        final int length = dis.readInt();
+        if (length < 0) {
+            return null;
+        } else if (length > maxLength) {
+            throw new IOException("Too long string! (" + length + ")");
+        } else {
+            final byte[] bytes = new byte[length];
+            dis.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes a length-prefixed string.
+     *
+     * @param dos Destination of the string.
+     * @param s String or null.
+     * @throws IOException If the string could not be written.
+     */
+    static void writeString(final DataOutputStream dos, final String s)
+        throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+        } else {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    /**
+     * Serves all requests of a connection until the client closes it.
+     *
+     * @param channel Connection to a client.
+     * @param cache Cache of executables or null.
+     * @param statistics Statistics to which the metrics of each
+     * request are added.
+     */
+    static void serve(final SocketChannel channel,
+                      final ExecutableCache cache,
+                      final AssemblyStatistics statistics) {
+        try (SocketChannel sc = channel) {
+            final DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(sc)));
+            final DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(sc)));
+
+            while (true) {
+                int maxErrors;
+                try {
+                    maxErrors = dis.readInt();
+                } catch (final EOFException eofe) {
+                    return;
+                }
+                final String label = readString(dis, MAX_LENGTH);
+                final String program = readString(dis, MAX_LENGTH);
+                if (program == null) {
+                    throw new IOException("Missing source!");
+                }
+
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final PrintStream ps =
+                    new PrintStream(baos, true, StandardCharsets.UTF_8.name());
+                final AssemblyMetrics metrics = new AssemblyMetrics();
+                String executable;
+                String report;
+                try {
+                    executable =
+                        NAS.assemble(label, program, Math.max(maxErrors, 0),
+                                     ps, cache, metrics);
+                    ps.flush();
+                    report = baos.toString(StandardCharsets.UTF_8.name());
+                } catch (final RuntimeException re) {
+                    executable = null;
+                    report = Batch.failure(label, re);
+                } catch (final Error err) {
+                    executable = null;
+                    report = Batch.failure(label, err);
+                }
+                statistics.add(metrics);
+
+                writeString(dos, executable);
+                writeString(dos, report);
+                dos.flush();
+            }
+        } catch (final IOException ioe) {
+            // The client is gone or sent garbage, so there is nobody
+            // to report to.
+        }
+    }
+
+    /**
+     * Removes a socket file left behind by a server that is no longer
+     * running. Any other existing file, and the socket of a running
+     * server, is left untouched and reported as an error.
+     *
+     * @param path Path of the Unix domain socket.
+     * @throws IOException If the path is in use.
+     */
+    static void removeStaleSocket(final Path path) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                                              LinkOption.NOFOLLOW_LINKS);
+        } catch (final IOException ioe) {
+
+            // Nothing to remove.
+            return;
+        }
+        if (!attributes.isOther()) {
+            throw new IOException("not a socket");
+        }
+
+        boolean running;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+            running = true;
+        } catch (final IOException ioe) {
+            running = false;
+        }
+        if (running) {
+            throw new IOException("server already running");
+        }
+        Files.delete(path);
+    }
+
+    /**
+     * Listens on the given socket path and serves each connection
+     * concurrently. This never returns normally. Statistics of all
+     * requests are readable through JMX.
+     *
+     * @param socketPath Path of the Unix domain socket.
+     * @param cache Cache of executables or null.
+     * @throws IOException If the path is in use or the socket could
+     * not be bound.
+     */
+    static void serve(final String socketPath, final ExecutableCache cache)
+        throws IOException {
+        final Path path = Paths.get(socketPath);
+
+        // A previous server may have left its socket file behind.
+        removeStaleSocket(path);
+
+        final AssemblyStatistics statistics = new AssemblyStatistics();
+        statistics.register("server");
+
+        final ExecutorService executor = newExecutor();
+        try (ServerSocketChannel ssc =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            ssc.bind(UnixDomainSocketAddress.of(path));
+
+            // Only the socket file created by the bind is removed.
+            try {
+                while (true) {
+                    final SocketChannel sc = ssc.accept();
+                    executor.execute(new Runnable() {
+                            public void run() {
+                                serve(sc, cache, statistics);
+                            }
+                        });
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        } finally {
+            executor.shutdown();
+            statistics.unregister();
+        }
+    }
+}
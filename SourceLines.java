@@ -0,0 +1,143 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Lines of source code parsed so far. Lines are only stored as
+ * offsets into the source, which is either a byte buffer or a
+ * sequence of characters, and a line is sliced out of the source
+ * when it is requested, e.g., when an error report is rendered.
+ */
+final class SourceLines extends AbstractList<String> {
+
+    /**
+     * Buffer holding the source, or null if the source is a sequence
+     * of characters.
+     */
+    ByteBuffer buffer;
+
+    /**
+     * Characters of the source, or null if the source is a buffer.
+     */
+    CharSequence text;
+
+    /**
+     * Start offsets of lines in the buffer.
+     */
+    int[] starts;
+
+    /**
+     * End offsets (exclusive) of lines in the buffer.
+     */
+    int[] ends;
+
+    /**
+     * Number of lines.
+     */
+    int noOffsets;
+
+    /**
+     * Creates an empty list of lines.
+     */
+    SourceLines() {
+        this.buffer = null;
+        this.text = null;
+        this.starts = new int[16];
+        this.ends = new int[16];
+        this.noOffsets = 0;
+    }
+
+    /**
+     * Clears this list and releases its source.
+     */
+    void reset() {
+        this.buffer = null;
+        this.text = null;
+        this.noOffsets = 0;
+    }
+
+    /**
+     * Clears this list and prepares it for lines stored as offsets
+     * into the given buffer.
+     *
+     * @param buffer Buffer holding the source.
+     */
+    void reset(final ByteBuffer buffer) {
+        reset();
+        this.buffer = buffer;
+    }
+
+    /**
+     * Clears this list and prepares it for lines stored as offsets
+     * into the given characters.
+     *
+     * @param text Characters of the source.
+     */
+    void reset(final CharSequence text) {
+        reset();
+        this.text = text;
+    }
+
+    /**
+     * Adds a line stored in the source.
+     *
+     * @param start Start offset of line.
+     * @param end End offset (exclusive) of line.
+     */
+    void add(final int start, final int end) {
+        if (noOffsets == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * noOffsets);
+            ends = Arrays.copyOf(ends, 2 * noOffsets);
+        }
+        starts[noOffsets] = start;
+        ends[noOffsets] = end;
+        noOffsets++;
+    }
+
+    /**
+     * Adds the first lines of the given list, which must be stored as
+     * offsets into the same source.
+     *
+     * @param lines Lines to add.
+     * @param count Number of lines to add.
+     */
+    void append(final SourceLines lines, final int count) {
+        if (noOffsets + count > starts.length) {
+            final int capacity = Math.max(noOffsets + count, 2 * noOffsets);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(lines.starts, 0, starts, noOffsets, count);
+        System.arraycopy(lines.ends, 0, ends, noOffsets, count);
+        noOffsets += count;
+    }
+
+    @Override
+    public String get(final int index) {
+        if (index < 0 || index >= noOffsets) {
+            throw new IndexOutOfBoundsException("" + index);
+        } else if (text != null) {
+            return text.subSequence(starts[index], ends[index]).toString();
+        } else {
+            final byte[] bytes = new byte[ends[index] - starts[index]];
+            final ByteBuffer bb = buffer.duplicate();
+            bb.position(starts[index]);
+            bb.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public int size() {
+        return noOffsets;
+    }
+}
@@ -1,4 +1,3 @@
-
 /**
  * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
  * This file is part of the NIC/NAS software licensed under BSD
@@ -8,22 +7,54 @@
 package se.kth.csc.nas;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Stores a mapping of strings to integers starting from zero.
+ * Stores a mapping of strings to integers starting from zero. Every
+ * name used or defined in a program is interned to a dense integer
+ * identifier, and the symbol defined by a name, if any, is found by
+ * indexing with its identifier. Names are hashed into an open
+ * addressing table of primitive integers, so no boxing takes place.
  */
 class SymbolTable {
 
     /**
-     * Underlying hash table mapping strings to integers.
+     * Identifier returned for names that are not interned.
+     */
+    final static int NO_ID = -1;
+
+    /**
+     * Open addressing table with linear probing holding identifiers
+     * plus one, where zero indicates an empty slot. The length is a
+     * power of two.
+     */
+    int[] slots;
+
+    /**
+     * Interned names indexed by identifier.
+     */
+    String[] names;
+
+    /**
+     * Hash codes of interned names indexed by identifier, compared
+     * before the names themselves while probing.
+     */
+    int[] hashes;
+
+    /**
+     * Symbols indexed by identifier, or null for names that are used
+     * but not defined.
+     */
+    Symbol[] byId;
+
+    /**
+     * Number of interned names.
      */
-    final Map<String, Integer> map;
+    int noNames;
 
     /**
-     * Underlying hash table mapping strings to integers.
+     * Defined symbols in order of definition.
      */
     final List<Symbol> symbols;
 
@@ -31,17 +62,128 @@ class SymbolTable {
      * Creates an empty symbol index.
      */
     SymbolTable() {
-        this.map = new HashMap<String, Integer>();
+        this.slots = new int[64];
+        this.names = new String[32];
+        this.hashes = new int[32];
+        this.byId = new Symbol[32];
+        this.noNames = 0;
         this.symbols = new ArrayList<Symbol>();
     }
 
+    /**
+     * Clears this table for use with another program. The arrays are
+     * kept at their current size.
+     */
+    void reset() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(names, 0, noNames, null);
+        Arrays.fill(byId, 0, noNames, null);
+        noNames = 0;
+        symbols.clear();
+    }
+
+    /**
+     * Returns the slot at which to start probing for the name. Hash
+     * codes of similar names are close, so they are scrambled by
+     * Fibonacci hashing to avoid long runs of occupied slots.
+     *
+     * @param hash Hash code of name.
+     * @return Index of slot.
+     */
+    private int start(final int hash) {
+        final int bits = Integer.numberOfTrailingZeros(slots.length);
+        return (hash * 0x9e3779b9) >>> (32 - bits);
+    }
+
+    /**
+     * Returns the identifier of the given name.
+     *
+     * @param name Name.
+     * @return Identifier or {@link #NO_ID} if the name is not
+     * interned.
+     */
+    int lookup(final String name) {
+        final int hash = name.hashCode();
+        final int mask = slots.length - 1;
+        for (int i = start(hash); slots[i] != 0; i = (i + 1) & mask) {
+            final int id = slots[i] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+        return NO_ID;
+    }
+
+    /**
+     * Returns the identifier of the given name, interning it if
+     * needed.
+     *
+     * @param name Name.
+     * @return Identifier.
+     */
+    int intern(final String name) {
+        final int hash = name.hashCode();
+        final int mask = slots.length - 1;
+        int i = start(hash);
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            final int id = slots[i] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+
+        if (noNames == names.length) {
+            names = Arrays.copyOf(names, 2 * noNames);
+            hashes = Arrays.copyOf(hashes, 2 * noNames);
+            byId = Arrays.copyOf(byId, 2 * noNames);
+        }
+        final int id = noNames++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[i] = id + 1;
+
+        // Keep the load factor at most one half.
+        if (2 * noNames > slots.length) {
+            rehash(2 * slots.length);
+        }
+        return id;
+    }
+
+    /**
+     * Rebuilds the hash table with the given number of slots.
+     *
+     * @param capacity Number of slots, which must be a power of two.
+     */
+    private void rehash(final int capacity) {
+        slots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int id = 0; id < noNames; id++) {
+            int i = start(hashes[id]);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id + 1;
+        }
+    }
+
+    /**
+     * Returns the name with the given identifier.
+     *
+     * @param id Identifier.
+     * @return Name.
+     */
+    String name(final int id) {
+        return names[id];
+    }
+
     /**
      * Stores the given symbol.
      *
      * @param symbol Symbol to be stored.
      */
     void put(final Symbol symbol) {
-        map.put(symbol.name, symbols.size());
+        final int id = intern(symbol.name);
+        byId[id] = symbol;
         symbols.add(symbol);
     }
 
@@ -51,21 +193,31 @@ class SymbolTable {
      * @param name Name of symbol.
      */
     Symbol get(final String name) {
-        final Integer index = map.get(name);
-        if (index == null) {
+        final int id = lookup(name);
+        if (id == NO_ID) {
             return null;
         } else {
-            return symbols.get(index);
+            return byId[id];
         }
     }
 
+    /**
+     * Returns the symbol with the given identifier.
+     *
+     * @param id Identifier of the name of the symbol.
+     */
+    Symbol get(final int id) {
+        return byId[id];
+    }
+
     /**
      * Relocates the symbols in this table relative the given end of
      * program.
      *
      * @param name Name of symbol.
+     * @return Address following the last symbol.
      */
-    void relocate(final int endOfProgram) {
+    int relocate(final int endOfProgram) {
         int address = endOfProgram;
 
         for (Symbol symbol : symbols) {
@@ -85,6 +237,7 @@ class SymbolTable {
                 address += 4 * symbol.values.length;
             }
         }
+        return address;
     }
 
     /**
@@ -0,0 +1,359 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import se.kth.csc.nic.Computer;
+import se.kth.csc.nic.Program;
+
+/**
+ * Runs an assembled program against a directory of tests. A test
+ * named "name" consists of a file "name.in" assigning registers and
+ * words of memory before the program is run, and a file "name.ans"
+ * with the expected values after the program halts. Each line of the
+ * files is blank or holds a register "rX" or an address followed by
+ * a value, and comments start with "//".
+ *
+ * <p>
+ *
+ * The program is assembled and decoded once, and the decoded program
+ * is shared by all tests. Each test only allocates a computer, i.e.,
+ * a memory and registers, and the tests run in parallel on a
+ * fork-join pool, but the results are written in input order.
+ */
+final class Tests {
+
+    /**
+     * Default maximal number of instructions executed by a test.
+     */
+    final static long MAX_STEPS = 1000000;
+
+    /**
+     * Number of instructions interpreted by all tests together before
+     * the program is compiled, which takes about a second and only
+     * pays off if the tests run many more instructions.
+     */
+    final static long COMPILE_STEPS = 100000000;
+
+    /**
+     * Number of instructions a test runs between checks if the
+     * program should be compiled.
+     */
+    final static long SLICE_STEPS = 1000000;
+
+    /**
+     * Postfix of input files.
+     */
+    final static String INPUT_POSTFIX = ".in";
+
+    /**
+     * Postfix of files with expected values.
+     */
+    final static String ANSWER_POSTFIX = ".ans";
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Tests() {
+    }
+
+    /**
+     * Values assigned to registers and words, or expected values.
+     */
+    static final class Assignments {
+
+        /**
+         * Locations, where a register "rX" is represented by -1 - X
+         * and a word by its address.
+         */
+        final int[] locations;
+
+        /**
+         * Values of locations.
+         */
+        final int[] values;
+
+        /**
+         * Creates assignments.
+         *
+         * @param locations Locations.
+         * @param values Values of locations.
+         */
+        Assignments(final int[] locations, final int[] values) {
+            this.locations = locations;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Returns the names of the tests in the directory in
+     * lexicographical order, i.e., the names of the files ending with
+     * {@link #INPUT_POSTFIX} without the postfix.
+     *
+     * @param dir Directory of tests.
+     * @return Names of tests.
+     * @throws IOException If the directory could not be read.
+     */
+    static List<String> names(final String dir) throws IOException {
+        final List<String> names = new ArrayList<String>();
+        try (DirectoryStream<Path> ds =
+                 Files.newDirectoryStream(Paths.get(dir),
+                                          "*" + INPUT_POSTFIX)) {
+            for (final Path input : ds) {
+                if (Files.isRegularFile(input)) {
+                    final String filename = input.getFileName().toString();
+                    names.add(filename.substring(0, filename.length()
+                                                 - INPUT_POSTFIX.length()));
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Parses a location, i.e., a register or an address.
+     *
+     * @param s Characters.
+     * @param start Start offset of span.
+     * @param end End offset of span.
+     * @return Location or {@link LineScanner#INVALID}.
+     */
+    static long location(final CharSequence s,
+                         final int start,
+                         final int end) {
+        final int register = LineScanner.register(s, start, end);
+        if (register >= 0) {
+            return -1 - register;
+        }
+        final long address = value(s, start, end);
+        return 0 <= address && address < Computer.MEMORY_SIZE
+            ? address : LineScanner.INVALID;
+    }
+
+    /**
+     * Parses a value in decimal or in hexadecimal with prefix "0x",
+     * which must fit in a byte, signed or unsigned.
+     *
+     * @param s Characters.
+     * @param start Start offset of span.
+     * @param end End offset of span.
+     * @return Value or {@link LineScanner#INVALID}.
+     */
+    static long value(final CharSequence s,
+                      final int start,
+                      final int end) {
+        long value;
+        if (end - start > 2 && s.charAt(start) == '0'
+            && s.charAt(start + 1) == 'x') {
+            value = LineScanner.parseInt(s, start + 2, end, 16);
+        } else {
+            value = LineScanner.parseInt(s, start, end, 10);
+        }
+        return -128 <= value && value <= 255 ? value : LineScanner.INVALID;
+    }
+
+    /**
+     * Reads assignments from a file.
+     *
+     * @param path File.
+     * @return Assignments.
+     * @throws IOException If the file could not be read or is
+     * malformed.
+     */
+    static Assignments read(final Path path) throws IOException {
+        final List<String> lines =
+            Files.readAllLines(path, StandardCharsets.UTF_8);
+        final int[] locations = new int[lines.size()];
+        final int[] values = new int[lines.size()];
+        final LineScanner scanner = new LineScanner();
+
+        int count = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i);
+            final int tokens = scanner.scan(line);
+            if (tokens == 0) {
+                continue;
+            }
+
+            long location = LineScanner.INVALID;
+            long value = LineScanner.INVALID;
+            if (tokens == 2) {
+                location = location(line, scanner.starts[0], scanner.ends[0]);
+                value = value(line, scanner.starts[1], scanner.ends[1]);
+            }
+            if (location == LineScanner.INVALID
+                || value == LineScanner.INVALID) {
+                throw new IOException(String.format("Malformed line! (%s:%d)",
+                                                    path, i + 1));
+            }
+            locations[count] = (int) location;
+            values[count] = (byte) value;
+            count++;
+        }
+        return new Assignments(Arrays.copyOf(locations, count),
+                               Arrays.copyOf(values, count));
+    }
+
+    /**
+     * Returns the name of a location.
+     *
+     * @param location Location.
+     * @return Name of location.
+     */
+    static String name(final int location) {
+        if (location < 0) {
+            return "r" + (-1 - location);
+        } else {
+            return String.format("0x%02x", location);
+        }
+    }
+
+    /**
+     * Runs a single test.
+     *
+     * @param program Decoded program.
+     * @param dir Directory of tests.
+     * @param name Name of test.
+     * @param maxSteps Maximal number of instructions executed.
+     * @param totalSteps Number of instructions executed by all tests.
+     * @return Line reporting the result of the test.
+     */
+    static String run(final Program program,
+                      final String dir,
+                      final String name,
+                      final long maxSteps,
+                      final LongAdder totalSteps) {
+        Assignments input;
+        Assignments answer;
+        try {
+            input = read(Paths.get(dir, name + INPUT_POSTFIX));
+            answer = read(Paths.get(dir, name + ANSWER_POSTFIX));
+        } catch (final IOException ioe) {
+            return String.format("FAIL %s: Unable to read test! (%s)",
+                                 name, ioe.getMessage());
+        }
+
+        final Computer computer = new Computer(program);
+        for (int i = 0; i < input.locations.length; i++) {
+            final int location = input.locations[i];
+            if (location < 0) {
+                computer.setRegister(-1 - location, input.values[i]);
+            } else {
+                computer.setWord(location, input.values[i]);
+            }
+        }
+
+        // Compile the program once the tests together run long,
+        // whether a few tests run long or many run briefly, and keep
+        // interpreting if no Java compiler is available.
+        int status = Computer.STEP_LIMIT;
+        long remaining = maxSteps;
+        while (remaining > 0 && status != Computer.HALTED) {
+            final long before = computer.getSteps();
+            status = computer.run(Math.min(remaining, SLICE_STEPS));
+            final long steps = computer.getSteps() - before;
+            remaining -= steps;
+            totalSteps.add(steps);
+            if (totalSteps.sum() > COMPILE_STEPS) {
+                program.compile();
+            }
+        }
+        if (status != Computer.HALTED) {
+            return String.format("FAIL %s: No halt within %d steps!",
+                                 name, maxSteps);
+        }
+
+        for (int i = 0; i < answer.locations.length; i++) {
+            final int location = answer.locations[i];
+            final int value = location < 0
+                ? computer.getRegister(-1 - location)
+                : computer.getWord(location);
+            if (value != answer.values[i]) {
+                return String.format("FAIL %s: %s is %d, expected %d",
+                                     name, name(location), value,
+                                     answer.values[i]);
+            }
+        }
+        return "PASS " + name;
+    }
+
+    /**
+     * Runs the program against the tests in parallel and writes the
+     * result of each test in input order followed by a summary.
+     *
+     * @param executable Executable of program.
+     * @param dir Directory of tests.
+     * @param maxSteps Maximal number of instructions executed by a
+     * test.
+     * @param out Destination of results.
+     * @return Number of failed tests.
+     * @throws IOException If the directory could not be read.
+     */
+    static int run(final String executable,
+                   final String dir,
+                   final long maxSteps,
+                   final PrintStream out)
+        throws IOException {
+
+        final long start = System.nanoTime();
+        final List<String> names = names(dir);
+
+        // Decode once and share the program between all tests.
+        final Program program = new Program(executable);
+        final LongAdder totalSteps = new LongAdder();
+
+        final ForkJoinPool pool = new ForkJoinPool();
+        final List<ForkJoinTask<String>> tasks =
+            new ArrayList<ForkJoinTask<String>>(names.size());
+        try {
+            for (final String name : names) {
+                tasks.add(pool.submit(new Callable<String>() {
+                        public String call() {
+                            return run(program, dir, name, maxSteps,
+                                       totalSteps);
+                        }
+                    }));
+            }
+
+            // Results are written as soon as all preceding tests are
+            // done, so the output is independent of scheduling.
+            int failed = 0;
+            for (final ForkJoinTask<String> task : tasks) {
+                final String result = task.join();
+                out.println(result);
+                if (!result.startsWith("PASS")) {
+                    failed++;
+                }
+            }
+
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final int tests = names.size();
+            out.println(String.format("%d test%s, %d failed, %.3f s",
+                                      tests, tests == 1 ? "" : "s",
+                                      failed, seconds));
+            return failed;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -1,4 +1,3 @@
-
 /**
  * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
  * This file is part of the NIC/NAS software licensed under BSD
@@ -9,7 +8,22 @@ package se.kth.csc.nas;
 
 /**
  * Thrown to indicate that too many errors has occurred during
- * parsing.
+ * parsing. The exception only unwinds the parser, so a single
+ * instance without a stack trace is thrown every time.
  */
 class TooManyErrorsException extends RuntimeException {
+
+    /**
+     * Instance that is thrown.
+     */
+    final static TooManyErrorsException INSTANCE =
+        new TooManyErrorsException();
+
+    /**
+     * Creates the instance without suppression or a writable stack
+     * trace.
+     */
+    private TooManyErrorsException() {
+        super(null, null, false, false);
+    }
 }
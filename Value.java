@@ -16,10 +16,11 @@ import java.util.Formatter;
 class Value {
 
     /**
-     * Basis of a symbolic value defined in terms of another symbolic
-     * value.
+     * Identifier of the name of the basis of a symbolic value defined
+     * in terms of another symbolic value, or {@link SymbolTable#NO_ID}
+     * for a constant value.
      */
-    String name;
+    int id;
 
     /**
      * Constant value.
@@ -38,16 +39,17 @@ class Value {
     boolean hexFormat;
 
     /**
-     * Creates a value from the given symbolic name, constant, and
-     * offset. The former may be the empty string in the case of a
-     * constant value.
+     * Creates a value from the given identifier of a symbolic name,
+     * constant, and offset. The former is {@link SymbolTable#NO_ID}
+     * in the case of a constant value.
      *
-     * @param name Symbolic name or the empty string.
+     * @param id Identifier of symbolic name or {@link
+     * SymbolTable#NO_ID}.
      * @param constant Constant value.
      * @param offset Offset.
      */
-    Value(final String name, final int constant, final int offset) {
-        this.name = name;
+    Value(final int id, final int constant, final int offset) {
+        this.id = id;
         this.constant = constant;
         this.offset = offset;
         this.hexFormat = false;
@@ -62,6 +64,18 @@ class Value {
 
     @Override
     public String toString() {
+        return toString(null);
+    }
+
+    /**
+     * Returns a string representation of this value, where the name
+     * is looked up in the given symbol table.
+     *
+     * @param symbolTable Symbol table holding the name, or null if
+     * the identifier should be printed instead.
+     * @return Representation of this value.
+     */
+    String toString(final SymbolTable symbolTable) {
         final StringBuilder sb = new StringBuilder();
         final Formatter fmt = new Formatter(sb);
 
@@ -72,8 +86,12 @@ class Value {
             fmt.format("%d", no >= 128 ? no - 256 : no);
         }
 
-        if (!name.equals("")) {
-            fmt.format("(%s)", name);
+        if (id != SymbolTable.NO_ID) {
+            if (symbolTable == null) {
+                fmt.format("(#%d)", id);
+            } else {
+                fmt.format("(%s)", symbolTable.name(id));
+            }
         }
 
         String offs = offset > 0 ? "+" : "";
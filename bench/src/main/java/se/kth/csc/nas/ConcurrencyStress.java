@@ -0,0 +1,280 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of {@link NasAssembler} shared by many threads. The
+ * results of assembling a set of programs one after another are
+ * recorded first, and then every thread assembles all programs
+ * repeatedly in its own random order with the same assemblers and
+ * compares each executable and error report with the recorded ones.
+ * The programs include variants that differ in a single word, so any
+ * state leaking between concurrent calls changes some result.
+ *
+ * <p>
+ *
+ * Then large programs, which are parsed in parallel chunks, are
+ * assembled as tasks of the common fork-join pool, as a parallel
+ * stream does, so calls are also made by threads that run other
+ * calls while they wait for the chunks of their own. The large
+ * programs differ in the number of leading empty lines, which shifts
+ * the line numbers of all errors.
+ *
+ * <p>
+ *
+ * Run it from the benchmark jar with the number of threads, which
+ * defaults to the number of processors, and the number of rounds:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar se.kth.csc.nas.ConcurrencyStress [threads [rounds]]
+ * </pre>
+ *
+ * Large programs are only split if the common pool has at least two
+ * threads, so on a machine with few processors its parallelism should
+ * be set with
+ * {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism=8}.
+ * The exit code is 1 if any result differs.
+ */
+public final class ConcurrencyStress {
+
+    /**
+     * Number of variants of the small program.
+     */
+    final static int VARIANTS = 64;
+
+    /**
+     * Number of variants of the large programs.
+     */
+    final static int LARGE_VARIANTS = 48;
+
+    /**
+     * Minimal number of characters of a large program.
+     */
+    final static int LARGE_CHARS = 250000;
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private ConcurrencyStress() {
+    }
+
+    /**
+     * Returns the executable and error report of a program.
+     *
+     * @param assembler Assembler.
+     * @param label Program label.
+     * @param program Program.
+     * @return Executable, or "null" if none, and error report.
+     */
+    static String result(final NasAssembler assembler,
+                         final String label,
+                         final String program) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final PrintStream ps =
+            new PrintStream(baos, true, StandardCharsets.UTF_8);
+        final String executable = assembler.assemble(label, program, ps);
+        ps.flush();
+        return executable + "\n" + baos.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a variant of a large program, which is generated from
+     * the given kind repeated until it is large enough to be parsed in
+     * parallel chunks.
+     *
+     * @param kind Kind of program.
+     * @param variant Number of leading empty lines.
+     * @return Large program.
+     */
+    static String large(final Corpus.Kind kind, final int variant) {
+        final String program = Corpus.generate(kind);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < variant; i++) {
+            sb.append('\n');
+        }
+        while (sb.length() < LARGE_CHARS) {
+            sb.append(program);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Assembles the large programs with every assembler as tasks of
+     * the common pool and counts the results that differ from the
+     * expected ones.
+     *
+     * @param assemblers Assemblers.
+     * @param programs Large programs.
+     * @param expected Expected results.
+     * @param calls Counter of calls.
+     * @param mismatches Counter of mismatches.
+     */
+    static void commonPool(final NasAssembler[] assemblers,
+                           final List<String> programs,
+                           final String[] expected,
+                           final AtomicLong calls,
+                           final AtomicLong mismatches) {
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int i = 0; i < expected.length; i++) {
+            final int index = i;
+            tasks.add(ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+                        final String actual =
+                            result(assemblers[index % assemblers.length],
+                                   "q" + index / assemblers.length,
+                                   programs.get(index / assemblers.length));
+                        if (!actual.equals(expected[index])) {
+                            mismatches.incrementAndGet();
+                        }
+                        calls.incrementAndGet();
+                    }
+                }));
+        }
+
+        // Fork the tasks from a task of the pool, so that they are
+        // also run by the threads joining other tasks.
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(new Runnable() {
+                public void run() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            }));
+    }
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args Number of threads and number of rounds.
+     * @throws Exception If a thread fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        final int threads = args.length > 0
+            ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final List<String> programs = new ArrayList<String>();
+        for (final Corpus.Kind kind : Corpus.Kind.values()) {
+            programs.add(Corpus.generate(kind));
+        }
+        final String small = Corpus.generate(Corpus.Kind.SMALL);
+        for (int i = 0; i < VARIANTS; i++) {
+            programs.add(small + "word variant " + i + "\n");
+        }
+
+        final NasAssembler[] assemblers = {
+            new NasAssembler(NAS.MAX_ERRORS, false),
+            new NasAssembler(NAS.MAX_ERRORS, true),
+            new NasAssembler(3, false)
+        };
+
+        // Sequential results, which every thread must reproduce.
+        final int tasks = programs.size() * assemblers.length;
+        final String[] expected = new String[tasks];
+        for (int i = 0; i < tasks; i++) {
+            expected[i] = result(assemblers[i % assemblers.length],
+                                 "p" + i / assemblers.length,
+                                 programs.get(i / assemblers.length));
+        }
+
+        final List<String> large = new ArrayList<String>();
+        for (int i = 0; i < LARGE_VARIANTS; i++) {
+            large.add(large(i % 2 == 0
+                            ? Corpus.Kind.LABELS : Corpus.Kind.ERRORS, i));
+        }
+        final String[] largeExpected =
+            new String[large.size() * assemblers.length];
+        for (int i = 0; i < largeExpected.length; i++) {
+            largeExpected[i] = result(assemblers[i % assemblers.length],
+                                      "q" + i / assemblers.length,
+                                      large.get(i / assemblers.length));
+        }
+
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong mismatches = new AtomicLong();
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final Thread[] workers = new Thread[threads];
+        final Throwable[] failures = new Throwable[threads];
+
+        final long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            final Random random = new Random(index);
+                            final int[] order = new int[tasks];
+                            for (int i = 0; i < tasks; i++) {
+                                order[i] = i;
+                            }
+                            for (int round = 0; round < rounds; round++) {
+
+                                // Start each round together to
+                                // maximize contention.
+                                barrier.await();
+                                for (int i = tasks - 1; i > 0; i--) {
+                                    final int j = random.nextInt(i + 1);
+                                    final int tmp = order[i];
+                                    order[i] = order[j];
+                                    order[j] = tmp;
+                                }
+                                for (final int i : order) {
+                                    final String actual =
+                                        result(assemblers[i
+                                                          % assemblers.length],
+                                               "p" + i / assemblers.length,
+                                               programs.get(i / assemblers
+                                                            .length));
+                                    if (!actual.equals(expected[i])) {
+                                        mismatches.incrementAndGet();
+                                    }
+                                    calls.incrementAndGet();
+                                }
+                            }
+                        } catch (final Throwable throwable) {
+                            failures[index] = throwable;
+                            barrier.reset();
+                        }
+                    }
+                });
+            workers[t].start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        for (int round = 0; round < rounds; round++) {
+            commonPool(assemblers, large, largeExpected, calls, mismatches);
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (final Throwable failure : failures) {
+            if (failure != null) {
+                throw new Exception("Worker failed!", failure);
+            }
+        }
+        System.out.println(String.format("%d threads, %d pool threads, "
+                                         + "%d calls, %d mismatches, %.3f s",
+                                         threads,
+                                         ForkJoinPool
+                                         .getCommonPoolParallelism(),
+                                         calls.get(), mismatches.get(),
+                                         seconds));
+        if (mismatches.get() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.Random;
+
+/**
+ * Generator of synthetic assembler programs used by the benchmarks.
+ * Programs are generated from a fixed seed, so every run measures
+ * the same input.
+ */
+public final class Corpus {
+
+    /**
+     * Kinds of generated programs.
+     */
+    public enum Kind {
+
+        /**
+         * Small valid program of the size of a typical exercise.
+         */
+        SMALL,
+
+        /**
+         * Valid program as close to the size limit as possible.
+         */
+        MAXIMAL,
+
+        /**
+         * Program where most lines contain an error.
+         */
+        ERRORS,
+
+        /**
+         * Very large program with thousands of labels, which exceeds
+         * the size limit but exercises the symbol table.
+         */
+        LABELS
+    }
+
+    /**
+     * Register operators taking three registers.
+     */
+    private final static String[] REG_REG_REG = {
+        "add", "mul", "sub", "shift", "and", "or", "xor"
+    };
+
+    /**
+     * Erroneous lines, each triggering a different error.
+     */
+    private final static String[] ERRORS = {
+        "foo r1 r2",
+        "loadc rx 1",
+        "loadc r1 300",
+        "loadc r1 0x1ff",
+        "add r1 r2",
+        "word 9bad 1",
+        "code c 0x12345",
+        "jump",
+        "loadc r1 1 2",
+        "halt r1"
+    };
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Returns a register name.
+     *
+     * @param random Source of randomness.
+     * @return Register name.
+     */
+    private static String reg(final Random random) {
+        return "r" + Integer.toHexString(random.nextInt(16));
+    }
+
+    /**
+     * Appends a valid instruction that may refer to the given labels
+     * and words.
+     *
+     * @param sb Destination.
+     * @param random Source of randomness.
+     * @param labels Number of labels "l0", "l1", ... defined.
+     * @param words Number of words "w0", "w1", ... defined.
+     */
+    private static void instruction(final StringBuilder sb,
+                                    final Random random,
+                                    final int labels,
+                                    final int words) {
+        switch (random.nextInt(8)) {
+        case 0:
+            sb.append("loadc ").append(reg(random)).append(' ')
+                .append(random.nextInt(256) - 128);
+            break;
+        case 1:
+            sb.append("load ").append(reg(random))
+                .append(" w").append(random.nextInt(words));
+            break;
+        case 2:
+            sb.append("store ").append(reg(random))
+                .append(" w").append(random.nextInt(words));
+            break;
+        case 3:
+            sb.append("addc ").append(reg(random)).append(" 0x")
+                .append(Integer.toHexString(random.nextInt(256)));
+            break;
+        case 4:
+            sb.append("jumpn ").append(reg(random))
+                .append(" l").append(random.nextInt(labels));
+            break;
+        case 5:
+            sb.append("move ").append(reg(random)).append(' ')
+                .append(reg(random));
+            break;
+        default:
+            sb.append(REG_REG_REG[random.nextInt(REG_REG_REG.length)])
+                .append(' ').append(reg(random))
+                .append(' ').append(reg(random))
+                .append(' ').append(reg(random));
+            break;
+        }
+    }
+
+    /**
+     * Generates a valid program with the given number of
+     * instructions, every fourth of which is labeled, and data
+     * words.
+     *
+     * @param random Source of randomness.
+     * @param instructions Number of instructions.
+     * @param words Number of data words.
+     * @return Program.
+     */
+    private static String valid(final Random random,
+                                final int instructions,
+                                final int words) {
+        final int labels = (instructions + 3) / 4;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("// Generated program.\n");
+        for (int i = 0; i < instructions; i++) {
+            if (i % 4 == 0) {
+                sb.append('l').append(i / 4).append(":\t");
+            } else {
+                sb.append('\t');
+            }
+            instruction(sb, random, labels, words);
+            if (i % 3 == 0) {
+                sb.append("\t// comment");
+            }
+            sb.append('\n');
+        }
+        sb.append("\thalt\n");
+        for (int i = 0; i < words; i++) {
+            sb.append("word w").append(i).append(' ')
+                .append(random.nextInt(256) - 128).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates a program of the given kind.
+     *
+     * @param kind Kind of program.
+     * @return Program.
+     */
+    public static String generate(final Kind kind) {
+        final Random random = new Random(kind.ordinal());
+
+        switch (kind) {
+        case SMALL:
+            return valid(random, 12, 3);
+        case MAXIMAL:
+
+            // 8 digits of magic word, 4 per instruction, 8 for the
+            // final halt and jump, 2 per word, and a line separator
+            // must fit in 256 characters.
+            return valid(random, 52, 10);
+        case ERRORS:
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                if (i % 4 == 0) {
+                    instruction(sb, random, 1, 1);
+                } else {
+                    sb.append(ERRORS[random.nextInt(ERRORS.length)]);
+                }
+                sb.append('\n');
+            }
+            sb.append("l0: halt\nword w0 0\n");
+            return sb.toString();
+        case LABELS:
+            return valid(random, 20000, 100);
+        default:
+            throw new IllegalArgumentException("Unknown kind! (" + kind + ")");
+        }
+    }
+}
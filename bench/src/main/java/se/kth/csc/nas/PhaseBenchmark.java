@@ -0,0 +1,272 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of each phase of the assembler on the synthetic corpus.
+ * Run with "-prof gc" to also report the allocation rate of each
+ * phase.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhaseBenchmark {
+
+    /**
+     * Maximal number of errors, large enough to never abort.
+     */
+    final static int MAX_ERRORS = 1 << 20;
+
+    /**
+     * Kind of program.
+     */
+    @Param({"SMALL", "MAXIMAL", "ERRORS", "LABELS"})
+    public Corpus.Kind kind;
+
+    /**
+     * Program.
+     */
+    String program;
+
+    /**
+     * Program encoded in UTF-8.
+     */
+    byte[] bytes;
+
+    /**
+     * Lines of the program.
+     */
+    String[] lines;
+
+    /**
+     * Lexical analyzer used for tokenizing.
+     */
+    Lex lex;
+
+    /**
+     * Parsing results whose error report is rendered.
+     */
+    IntermediateFormat rendered;
+
+    /**
+     * Generates the program.
+     *
+     * @throws IOException If parsing fails.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        program = Corpus.generate(kind);
+        bytes = program.getBytes(StandardCharsets.UTF_8);
+        lines = program.split("\n");
+        lex = new Lex(Parser.BLOCKSIZE,
+                      new ErrorLog(new ArrayList<String>(), MAX_ERRORS));
+        rendered = new Parser(MAX_ERRORS).parse(program);
+        rendered.generateBinary();
+    }
+
+    /**
+     * Parsing results that are consumed by a benchmark and therefore
+     * restored from a template before every use. Restoring copies
+     * the instructions and clears the error log without allocating.
+     */
+    @State(Scope.Thread)
+    public static class Parsed {
+
+        /**
+         * Parsing results that are never consumed.
+         */
+        IntermediateFormat template;
+
+        /**
+         * Parsing results restored from the template.
+         */
+        IntermediateFormat intermediateFormat;
+
+        /**
+         * Identity mapping of the identifiers of the template.
+         */
+        int[] ids;
+
+        /**
+         * Parses the program twice and relocates its symbols, which
+         * does not change the addresses of symbols when repeated.
+         *
+         * @param benchmark Benchmark holding the program.
+         * @throws IOException If parsing fails.
+         */
+        @Setup(Level.Trial)
+        public void setup(final PhaseBenchmark benchmark) throws IOException {
+            template = new Parser(MAX_ERRORS).parse(benchmark.program);
+            intermediateFormat =
+                new Parser(MAX_ERRORS).parse(benchmark.program);
+            final int size = intermediateFormat.instructionList.size();
+            intermediateFormat.symbolTable.relocate(4 * size + 8);
+
+            ids = new int[template.symbolTable.noNames];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i;
+            }
+        }
+
+        /**
+         * Restores the parsing results from the template.
+         *
+         * @return Parsing results.
+         */
+        IntermediateFormat restore() {
+            intermediateFormat.instructionList.copy(template.instructionList,
+                                                    0, 0, ids);
+            intermediateFormat.errorLog.reset(MAX_ERRORS);
+            return intermediateFormat;
+        }
+    }
+
+    /**
+     * Tokenizes every line.
+     *
+     * @param bh Consumer of tokens.
+     */
+    @Benchmark
+    public void tokenize(final Blackhole bh) {
+        for (final String line : lines) {
+            bh.consume(lex.tokenizeLine(line));
+        }
+    }
+
+    /**
+     * Parses the program.
+     *
+     * @return Parsing results.
+     * @throws IOException If parsing fails.
+     */
+    @Benchmark
+    public IntermediateFormat parse() throws IOException {
+        return new Parser(MAX_ERRORS).parse(program);
+    }
+
+    /**
+     * Parses the program with a parser from the pool, which is reset
+     * and reused.
+     *
+     * @return Number of instructions.
+     * @throws IOException If parsing fails.
+     */
+    @Benchmark
+    public int parsePooled() throws IOException {
+        final Parser parser = Parser.acquire(MAX_ERRORS, null, null);
+        try {
+            return parser.parse(program).instructionList.size();
+        } finally {
+            Parser.release(parser);
+        }
+    }
+
+    /**
+     * Parses the program encoded in UTF-8.
+     *
+     * @return Parsing results.
+     */
+    @Benchmark
+    public IntermediateFormat parseBytes() {
+        return new Parser(MAX_ERRORS).parse(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Parses the program encoded in UTF-8 in chunks in parallel,
+     * which falls back to parsing sequentially for small programs.
+     *
+     * @return Parsing results.
+     */
+    @Benchmark
+    public IntermediateFormat parseParallel() {
+        return new Parser(MAX_ERRORS).parseParallel(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Relocates the symbols of the symbol table.
+     *
+     * @return Symbol table.
+     */
+    @Benchmark
+    public SymbolTable relocateSymbols() {
+        final int size = rendered.instructionList.size();
+        rendered.symbolTable.relocate(4 * size + 8);
+        return rendered.symbolTable;
+    }
+
+    /**
+     * Restores parsing results, which is included in the benchmarks
+     * that consume them.
+     *
+     * @param parsed Parsing results.
+     * @return Instruction list.
+     */
+    @Benchmark
+    public InstructionList restore(final Parsed parsed) {
+        return parsed.restore().instructionList;
+    }
+
+    /**
+     * Relocates the values of the instructions.
+     *
+     * @param parsed Parsing results.
+     * @return Instruction list.
+     */
+    @Benchmark
+    public InstructionList relocateInstructions(final Parsed parsed) {
+        final IntermediateFormat inf = parsed.restore();
+        try {
+            inf.instructionList.relocate(inf.symbolTable);
+        } catch (final TooManyErrorsException tmee) {
+        }
+        return inf.instructionList;
+    }
+
+    /**
+     * Generates the executable, which includes relocation.
+     *
+     * @param parsed Parsing results.
+     * @return Executable.
+     */
+    @Benchmark
+    public String generateBinary(final Parsed parsed) {
+        return parsed.restore().generateBinary();
+    }
+
+    /**
+     * Renders the error report.
+     *
+     * @return Error report.
+     */
+    @Benchmark
+    public String renderErrors() {
+        return rendered.generateErrors("program.as");
+    }
+}
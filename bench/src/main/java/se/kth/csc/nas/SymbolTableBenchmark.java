@@ -0,0 +1,192 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the interned open addressing symbol table with the
+ * previous table, which mapped names to boxed indices in a hash map
+ * and resolved every symbolic operand by name, on programs with many
+ * labels. The parse benchmarks define the labels and record the
+ * references, and the relocate benchmarks resolve the references.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymbolTableBenchmark {
+
+    /**
+     * Previous symbol table mapping strings to boxed indices.
+     */
+    static final class HashMapSymbolTable {
+
+        /**
+         * Underlying hash table mapping strings to integers.
+         */
+        final Map<String, Integer> map = new HashMap<String, Integer>();
+
+        /**
+         * Symbols in order of definition.
+         */
+        final List<Symbol> symbols = new ArrayList<Symbol>();
+
+        /**
+         * Stores the given symbol.
+         *
+         * @param symbol Symbol to be stored.
+         */
+        void put(final Symbol symbol) {
+            map.put(symbol.name, symbols.size());
+            symbols.add(symbol);
+        }
+
+        /**
+         * Returns the symbol with the given name.
+         *
+         * @param name Name of symbol.
+         */
+        Symbol get(final String name) {
+            final Integer index = map.get(name);
+            return index == null ? null : symbols.get(index);
+        }
+    }
+
+    /**
+     * Number of labels.
+     */
+    @Param({"1000", "10000"})
+    public int n;
+
+    /**
+     * Names of labels, fresh for every invocation as produced by the
+     * tokenizer.
+     */
+    String[] labels;
+
+    /**
+     * Names referenced by instructions, fresh for every invocation.
+     */
+    String[] references;
+
+    /**
+     * Identifiers of references.
+     */
+    int[] ids;
+
+    /**
+     * Previous table holding all labels.
+     */
+    HashMapSymbolTable hashMapTable;
+
+    /**
+     * Interned table holding all labels.
+     */
+    SymbolTable internedTable;
+
+    /**
+     * Creates fresh names, so hash codes are not cached.
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        labels = new String[n];
+        references = new String[n];
+        ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = new String("label" + i);
+            references[i] = new String("label" + ((i * 7919) % n));
+        }
+        hashMapTable = hashMapParse();
+        internedTable = internedParse();
+    }
+
+    /**
+     * Defines the labels in the previous table, as the parser did.
+     *
+     * @return Table of labels.
+     */
+    @Benchmark
+    public HashMapSymbolTable hashMapParse() {
+        final HashMapSymbolTable table = new HashMapSymbolTable();
+        for (int i = 0; i < n; i++) {
+            if (table.get(labels[i]) == null) {
+                final Symbol symbol = new Symbol(SymbolType.LABEL, labels[i]);
+                symbol.setAddress(4 * i);
+                table.put(symbol);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Resolves every reference by name, as relocation did.
+     *
+     * @return Sum of addresses.
+     */
+    @Benchmark
+    public long hashMapRelocate() {
+        long sum = 0;
+        for (final String name : references) {
+            sum += hashMapTable.get(name).address;
+        }
+        return sum;
+    }
+
+    /**
+     * Defines the labels and interns the references, as the parser
+     * does now.
+     *
+     * @return Table of labels.
+     */
+    @Benchmark
+    public SymbolTable internedParse() {
+        final SymbolTable table = new SymbolTable();
+        for (int i = 0; i < n; i++) {
+            if (table.get(labels[i]) == null) {
+                final Symbol symbol = new Symbol(SymbolType.LABEL, labels[i]);
+                symbol.setAddress(4 * i);
+                table.put(symbol);
+            }
+            ids[i] = table.intern(references[i]);
+        }
+        return table;
+    }
+
+    /**
+     * Resolves every reference by identifier, as relocation does now.
+     *
+     * @return Sum of addresses.
+     */
+    @Benchmark
+    public long internedRelocate() {
+        long sum = 0;
+        for (final int id : ids) {
+            sum += internedTable.get(id).address;
+        }
+        return sum;
+    }
+}
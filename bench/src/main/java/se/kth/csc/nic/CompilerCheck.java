@@ -0,0 +1,126 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.util.Random;
+
+/**
+ * Differential check of compiled programs against the interpreter.
+ * Random memory images, which execute every instruction, store into
+ * their own code, and jump to computed addresses, are compiled and
+ * run by one computer while another computer interprets the same
+ * image, both from the same random registers and in the same
+ * sequence of runs with random step limits. After each run, the
+ * status, program counter, number of steps, registers, and memory of
+ * the computers must be equal.
+ *
+ * <p>
+ *
+ * Run it from the benchmark jar, which requires a full JDK, with the
+ * number of random programs:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar se.kth.csc.nic.CompilerCheck [programs]
+ * </pre>
+ *
+ * The exit code is 1 if any program differs or could not be compiled.
+ */
+public final class CompilerCheck {
+
+    /**
+     * Number of runs of each program.
+     */
+    final static int RUNS = 8;
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private CompilerCheck() {
+    }
+
+    /**
+     * Returns a description of the first difference between two
+     * computers, or null if there is none.
+     *
+     * @param compiled Computer running the compiled program.
+     * @param interpreted Computer interpreting the program.
+     * @return Difference or null.
+     */
+    static String difference(final Computer compiled,
+                             final Computer interpreted) {
+        if (compiled.getStatus() != interpreted.getStatus()) {
+            return "status";
+        }
+        if (compiled.getPC() != interpreted.getPC()) {
+            return "pc";
+        }
+        if (compiled.getSteps() != interpreted.getSteps()) {
+            return "steps";
+        }
+        for (int r = 0; r < Computer.REGISTERS; r++) {
+            if (compiled.getRegister(r) != interpreted.getRegister(r)) {
+                return "r" + r;
+            }
+        }
+        for (int a = 0; a < Computer.MEMORY_SIZE; a++) {
+            if (compiled.getWord(a) != interpreted.getWord(a)) {
+                return "word at " + a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the check.
+     *
+     * @param args Number of random programs.
+     */
+    public static void main(final String[] args) {
+        final int programs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        final Random random = new Random(0);
+        int differences = 0;
+        int failures = 0;
+        for (int p = 0; p < programs; p++) {
+            final String executable = LanesCheck.executable(random);
+            final Computer compiled = new Computer(new Program(executable));
+            final Computer interpreted = new Computer(new Program(executable));
+            if (!compiled.compile()) {
+                System.out.println(executable + ": not compiled");
+                failures++;
+                continue;
+            }
+            for (int r = 1; r < Computer.REGISTERS; r++) {
+                final int value = (byte) random.nextInt(256);
+                compiled.setRegister(r, value);
+                interpreted.setRegister(r, value);
+            }
+
+            for (int run = 0; run < RUNS; run++) {
+                final long maxSteps = random.nextInt(1 << random.nextInt(16));
+                compiled.run(maxSteps);
+                interpreted.run(maxSteps);
+                final String difference = difference(compiled, interpreted);
+                if (difference != null) {
+                    System.out.println(String.format("%s: differs in %s "
+                                                     + "after run %d",
+                                                     executable, difference,
+                                                     run));
+                    differences++;
+                    break;
+                }
+            }
+        }
+
+        System.out.println(String.format("%d programs, %d differences, "
+                                         + "%d not compiled",
+                                         programs, differences, failures));
+        if (differences > 0 || failures > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.kth.csc.nas.NAS;
+
+/**
+ * Throughput of the interpreter and of the compiled program in
+ * instructions per second on a program that never halts and
+ * exercises every operator.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ComputerBenchmark {
+
+    /**
+     * Number of instructions executed per invocation.
+     */
+    final static int STEPS = 1 << 20;
+
+    /**
+     * Program executed by the benchmark.
+     */
+    final static String PROGRAM =
+        "        loadc r1 1\n"
+        + "        loadc r8 buffer\n"
+        + "loop:   add r2 r2 r1\n"
+        + "        addc r3 1\n"
+        + "        store r2 w\n"
+        + "        load r4 w\n"
+        + "        xor r5 r4 r2\n"
+        + "        jumpn r5 loop\n"
+        + "        mul r6 r3 r2\n"
+        + "        sub r7 r6 r1\n"
+        + "        shift r9 r7 r1\n"
+        + "        and r10 r9 r3\n"
+        + "        or r11 r10 r1\n"
+        + "        move r12 r11\n"
+        + "        storer r12 r8\n"
+        + "        loadr r13 r8\n"
+        + "        jumpl r13 skip\n"
+        + "        noop\n"
+        + "skip:   jumple r1 loop\n"
+        + "        addc r14 0\n"
+        + "        jump loop\n"
+        + "word w 0\n"
+        + "word buffer 0\n";
+
+    /**
+     * Indicates if the program is compiled or interpreted.
+     */
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    /**
+     * Computer running the program.
+     */
+    Computer computer;
+
+    /**
+     * Assembles the program.
+     *
+     * @throws IOException If assembling fails.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final String executable =
+            NAS.assemble(null, PROGRAM, NAS.MAX_ERRORS, System.err);
+        computer = new Computer(executable);
+        if (compiled && !computer.compile()) {
+            throw new IllegalStateException("No Java compiler!");
+        }
+    }
+
+    /**
+     * Executes a fixed number of instructions.
+     *
+     * @return Status of the computer.
+     */
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int run() {
+        return computer.run(STEPS);
+    }
+}
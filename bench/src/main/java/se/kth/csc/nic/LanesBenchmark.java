@@ -0,0 +1,138 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.kth.csc.nas.NAS;
+
+/**
+ * Throughput in lanes per second of an arithmetic kernel run on many
+ * inputs, either by lanes in lock-step or by one computer per input.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LanesBenchmark {
+
+    /**
+     * Number of inputs.
+     */
+    final static int INPUTS = 1024;
+
+    /**
+     * Kernel hashing the registers r1 and r2 in a loop with a fixed
+     * number of iterations.
+     */
+    final static String PROGRAM =
+        "        loadc r0 0\n"
+        + "        loadc r3 16\n"
+        + "loop:   mul r4 r1 r2\n"
+        + "        add r5 r4 r3\n"
+        + "        xor r1 r5 r2\n"
+        + "        sub r2 r1 r3\n"
+        + "        and r6 r1 r2\n"
+        + "        or r7 r6 r4\n"
+        + "        store r7 w\n"
+        + "        load r8 w\n"
+        + "        add r2 r2 r8\n"
+        + "        addc r3 -1\n"
+        + "        jumpn r3 loop\n"
+        + "        halt\n"
+        + "word w 0\n";
+
+    /**
+     * Indicates if the inputs run in lock-step or one by one.
+     */
+    @Param({"false", "true"})
+    public boolean lockStep;
+
+    /**
+     * Inputs, two per lane.
+     */
+    int[] inputs;
+
+    /**
+     * Lanes running the kernel.
+     */
+    Lanes lanes;
+
+    /**
+     * Computer running the kernel.
+     */
+    Computer computer;
+
+    /**
+     * Assembles the program and generates inputs.
+     *
+     * @throws IOException If assembling fails.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final String executable =
+            NAS.assemble(null, PROGRAM, NAS.MAX_ERRORS, System.err);
+        final Program program = new Program(executable);
+        lanes = new Lanes(program, INPUTS);
+        computer = new Computer(program);
+
+        final Random random = new Random(0);
+        inputs = new int[2 * INPUTS];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.nextInt(256);
+        }
+    }
+
+    /**
+     * Runs the kernel on all inputs.
+     *
+     * @return Sum of results.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public int run() {
+        int sum = 0;
+        if (lockStep) {
+            lanes.reset();
+            for (int i = 0; i < INPUTS; i++) {
+                lanes.setRegister(i, 1, inputs[2 * i]);
+                lanes.setRegister(i, 2, inputs[2 * i + 1]);
+            }
+            lanes.run(Long.MAX_VALUE);
+            for (int i = 0; i < INPUTS; i++) {
+                sum += lanes.getRegister(i, 2);
+            }
+        } else {
+            for (int i = 0; i < INPUTS; i++) {
+                computer.reset();
+                computer.setRegister(1, inputs[2 * i]);
+                computer.setRegister(2, inputs[2 * i + 1]);
+                computer.run(Long.MAX_VALUE);
+                sum += computer.getRegister(2);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.io.IOException;
+import java.util.Random;
+
+import se.kth.csc.nas.NAS;
+
+/**
+ * Differential check of {@link Lanes} against one {@link Computer}
+ * per lane. The kernel of {@link LanesBenchmark} and random memory
+ * images, which execute every instruction, diverge, store into their
+ * own code, and halt at different times, are run with random
+ * registers in every lane, in a sequence of runs with random step
+ * limits. After each run, the status, program counter, number of
+ * steps, registers, and memory of every lane must equal those of its
+ * computer.
+ *
+ * <p>
+ *
+ * Run it from the benchmark jar with the number of random programs
+ * and the number of lanes:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar se.kth.csc.nic.LanesCheck [programs [lanes]]
+ * </pre>
+ *
+ * The exit code is 1 if any lane differs.
+ */
+public final class LanesCheck {
+
+    /**
+     * Number of runs of each program.
+     */
+    final static int RUNS = 8;
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private LanesCheck() {
+    }
+
+    /**
+     * Returns a random executable.
+     *
+     * @param random Source of randomness.
+     * @return Executable.
+     */
+    static String executable(final Random random) {
+        final StringBuilder sb = new StringBuilder(Computer.MAGIC);
+        for (int i = 0; i < Computer.MEMORY_SIZE; i++) {
+            sb.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a description of the first difference between a lane
+     * and a computer, or null if there is none.
+     *
+     * @param lanes Lanes.
+     * @param lane Lane.
+     * @param computer Computer.
+     * @return Difference or null.
+     */
+    static String difference(final Lanes lanes,
+                             final int lane,
+                             final Computer computer) {
+        if (lanes.getStatus(lane) != computer.getStatus()) {
+            return "status";
+        }
+        if (lanes.getPC(lane) != computer.getPC()) {
+            return "pc";
+        }
+        if (lanes.getSteps(lane) != computer.getSteps()) {
+            return "steps";
+        }
+        for (int r = 0; r < Computer.REGISTERS; r++) {
+            if (lanes.getRegister(lane, r) != computer.getRegister(r)) {
+                return "r" + r;
+            }
+        }
+        for (int a = 0; a < Computer.MEMORY_SIZE; a++) {
+            if (lanes.getWord(lane, a) != computer.getWord(a)) {
+                return "word at " + a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the program in lanes and in computers and returns the
+     * number of lanes that differ from their computers.
+     *
+     * @param program Program.
+     * @param size Number of lanes.
+     * @param random Source of randomness.
+     * @param label Label of the program in reports.
+     * @return Number of differing lanes.
+     */
+    static int check(final Program program,
+                     final int size,
+                     final Random random,
+                     final String label) {
+        final Lanes lanes = new Lanes(program, size);
+        final Computer[] computers = new Computer[size];
+        for (int i = 0; i < size; i++) {
+            computers[i] = new Computer(program);
+            for (int r = 1; r < Computer.REGISTERS; r++) {
+                final int value = (byte) random.nextInt(256);
+                lanes.setRegister(i, r, value);
+                computers[i].setRegister(r, value);
+            }
+        }
+
+        for (int run = 0; run < RUNS; run++) {
+            final long maxSteps = random.nextInt(1 << random.nextInt(12));
+            lanes.run(maxSteps);
+            int differing = 0;
+            for (int i = 0; i < size; i++) {
+                computers[i].run(maxSteps);
+                final String difference =
+                    difference(lanes, i, computers[i]);
+                if (difference != null) {
+                    System.out.println(String.format("%s: lane %d differs "
+                                                     + "in %s after run %d",
+                                                     label, i, difference,
+                                                     run));
+                    differing++;
+                }
+            }
+
+            // Later runs start from different states.
+            if (differing > 0) {
+                return differing;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the check.
+     *
+     * @param args Number of random programs and number of lanes.
+     * @throws IOException If the kernel could not be assembled.
+     */
+    public static void main(final String[] args) throws IOException {
+        final int programs =
+            args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int size = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        final Random random = new Random(0);
+        final String kernel = NAS.assemble(null, LanesBenchmark.PROGRAM,
+                                           NAS.MAX_ERRORS, System.err);
+        int differences = check(new Program(kernel), size, random, "kernel");
+        for (int p = 0; p < programs; p++) {
+            final String executable = executable(random);
+            differences +=
+                check(new Program(executable), size, random, executable);
+        }
+
+        System.out.println(String.format("%d programs, %d lanes, "
+                                         + "%d differences",
+                                         programs + 1, size, differences));
+        if (differences > 0) {
+            System.exit(1);
+        }
+    }
+}
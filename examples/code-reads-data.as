@@ -0,0 +1,12 @@
+// Runs instructions held in code directives, which load D by its
+// absolute address and jump back. D is named by no instruction, but
+// -O must neither drop it nor move the data around it.
+
+        loadc r2 0
+        jump C0
+back:   halt                    // address 8
+
+word pad 1
+code C0 0x1220                  // load r2 0x20, the address of D
+code C1 0xf008                  // jump 8
+word D 42
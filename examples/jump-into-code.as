@@ -0,0 +1,11 @@
+// Runs an instruction held in a code directive, which jumps back to
+// the absolute address 12. The noop must not be removed by -O, since
+// that would move the code following it away from that address.
+
+        loadc r2 0
+        noop
+        jump C0
+back:   addc r2 5               // address 12
+        halt
+
+code C0 0xf00c                  // jump 12
@@ -0,0 +1,12 @@
+// Loads a word through a pointer that is itself stored in a word, so
+// the address of the data is only known as a constant. The noop must
+// not be removed by -O, since that would move the data away from the
+// address held by the pointer.
+
+        load r1 ptr             // address of D
+        noop
+        loadr r2 r1
+        halt
+
+word ptr 0x1a
+word D 42
@@ -0,0 +1,21 @@
+// Sums the words of an array by walking a pointer over it. Only the
+// first word is named, so the layout of the data must be kept even
+// when the program is optimized with -O.
+
+        loadc r1 a0             // pointer to the current word
+        loadc r3 n              // address of the length
+        loadr r4 r3             // number of words left
+        loadc r0 0
+        loadc r2 0              // sum
+loop:   jumpe r4 done
+        loadr r5 r1
+        add r2 r2 r5
+        addc r1 2
+        addc r4 -1
+        jump loop
+done:   halt
+
+word n 3
+word a0 5
+word a1 7
+word a2 -2
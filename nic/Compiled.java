@@ -0,0 +1,46 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+/**
+ * Program translated into a class by {@link Compiler}. The state of
+ * the computer is read when the compiled code is entered and written
+ * back when it returns, so the compiled code and the interpreter can
+ * take turns executing a program.
+ */
+abstract class Compiled {
+
+    /**
+     * Status returned if the next instruction must be executed by
+     * the interpreter, either since it does not start a basic block
+     * or since the block does not fit within the step limit.
+     */
+    final static int BAIL = 3;
+
+    /**
+     * Status returned after a store into the code of the program,
+     * after which the compiled code is no longer valid.
+     */
+    final static int MODIFIED = 4;
+
+    /**
+     * Slots of four cells holding reachable instructions, one bit per
+     * slot.
+     */
+    long codeSlots;
+
+    /**
+     * Runs the computer until it halts, the step limit is reached, or
+     * the interpreter must take over.
+     *
+     * @param computer Computer holding the state.
+     * @param maxSteps Maximal number of instructions to execute.
+     * @return {@link Computer#HALTED}, {@link #BAIL}, or {@link
+     * #MODIFIED}.
+     */
+    abstract int run(Computer computer, long maxSteps);
+}
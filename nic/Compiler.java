@@ -0,0 +1,583 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Translates a NIC program into a class, so that the program is
+ * compiled to machine code by the virtual machine.
+ *
+ * <p>
+ *
+ * The instructions reachable from address zero are split into basic
+ * blocks, each of which becomes a case of a switch over the program
+ * counter with the registers held in local variables. A block is
+ * only entered if all of its instructions fit within the step limit,
+ * and the interpreter executes the instructions that do not. A store
+ * into a reachable instruction returns control to the interpreter for
+ * good, since the compiled code no longer matches the program.
+ *
+ * <p>
+ *
+ * The class is generated as Java source, compiled with the system
+ * Java compiler, and defined as a hidden class in this package.
+ */
+final class Compiler {
+
+    /**
+     * Number of slots of four cells.
+     */
+    final static int SLOTS = Computer.MEMORY_SIZE / 4;
+
+    /**
+     * Name of the generated class.
+     */
+    final static String CLASS_NAME = "CompiledProgram";
+
+    /**
+     * Destination of reports of failed compilations, after which
+     * programs are interpreted.
+     */
+    private final static Logger LOGGER =
+        System.getLogger(Compiler.class.getName());
+
+    /**
+     * Avoid accidental instantiation.
+     */
+    private Compiler() {
+    }
+
+    /**
+     * Returns the opcode of a packed instruction.
+     *
+     * @param insn Packed instruction.
+     * @return Opcode.
+     */
+    static int opcode(final int insn) {
+        return insn & 0xff;
+    }
+
+    /**
+     * Returns the register with the given position of a packed
+     * instruction.
+     *
+     * @param insn Packed instruction.
+     * @param position Position of register, zero, one, or two.
+     * @return Name of local variable holding the register.
+     */
+    static String reg(final int insn, final int position) {
+        return "r" + (insn >> (8 + 4 * position) & 0xf);
+    }
+
+    /**
+     * Returns the address or constant of a packed instruction.
+     *
+     * @param insn Packed instruction.
+     * @return Address or constant.
+     */
+    static int xy(final int insn) {
+        return insn >>> 24;
+    }
+
+    /**
+     * Returns true if the instruction ends a basic block.
+     *
+     * @param insn Packed instruction.
+     * @return True if the instruction ends a basic block.
+     */
+    static boolean isTerminator(final int insn) {
+        final int opcode = opcode(insn);
+        return opcode == Computer.HALT
+            || Computer.JUMPE <= opcode && opcode <= Computer.JUMP;
+    }
+
+    /**
+     * Returns the slots of the instructions reachable from address
+     * zero, one bit per slot. The instruction following a halt is
+     * reachable, since a halted computer may be run again.
+     *
+     * @param code Decoded instructions.
+     * @param leaders Set to true for slots starting basic blocks.
+     * @return Reachable slots.
+     */
+    static long reachable(final int[] code, final boolean[] leaders) {
+
+        // Every slot is pushed at most once.
+        final int[] stack = new int[SLOTS];
+        int top = 0;
+        long pushed = 1L;
+        stack[top++] = 0;
+        leaders[0] = true;
+
+        while (top > 0) {
+            final int slot = stack[--top];
+            final int insn = code[slot];
+            final int next = (slot + 1) % SLOTS;
+            final int target = xy(insn) >> 2;
+
+            int first = next;
+            int second = -1;
+            switch (opcode(insn)) {
+            case Computer.HALT:
+                leaders[next] = true;
+                break;
+            case Computer.JUMP:
+                leaders[target] = true;
+                first = target;
+                break;
+            case Computer.JUMPE:
+            case Computer.JUMPN:
+            case Computer.JUMPL:
+            case Computer.JUMPLE:
+                leaders[target] = true;
+                leaders[next] = true;
+                second = target;
+                break;
+            default:
+                break;
+            }
+
+            if ((pushed >>> first & 1L) == 0) {
+                pushed |= 1L << first;
+                stack[top++] = first;
+            }
+            if (second >= 0 && (pushed >>> second & 1L) == 0) {
+                pushed |= 1L << second;
+                stack[top++] = second;
+            }
+        }
+        return pushed;
+    }
+
+    /**
+     * Returns true if a word stored at the given address overlaps
+     * the given slots.
+     *
+     * @param slots Slots, one bit per slot.
+     * @param address Address of word.
+     * @return True if the word overlaps the slots.
+     */
+    static boolean overlaps(final long slots, final int address) {
+        final int next = (address + 1) & 0xff;
+        return ((slots >>> (address >> 2) | slots >>> (next >> 2)) & 1L) != 0;
+    }
+
+    /**
+     * Generates the source of a class executing the given program.
+     *
+     * @param code Decoded instructions.
+     * @param codeSlots Reachable slots.
+     * @param leaders Slots starting basic blocks.
+     * @return Source of class.
+     */
+    static String generate(final int[] code,
+                           final long codeSlots,
+                           final boolean[] leaders) {
+        final StringBuilder sb = new StringBuilder();
+        final String slots = String.format("0x%xL", codeSlots);
+
+        sb.append("package se.kth.csc.nic;\n\n");
+        sb.append("final class ").append(CLASS_NAME)
+            .append(" extends Compiled {\n\n");
+        sb.append("    int run(final Computer c, final long maxSteps) {\n");
+        sb.append("        final byte[] m = c.memory;\n");
+        sb.append("        final int[] reg = c.registers;\n");
+        for (int i = 0; i < Computer.REGISTERS; i++) {
+            sb.append("        int r").append(i).append(" = reg[")
+                .append(i).append("];\n");
+        }
+        sb.append("        int pc = c.pc;\n");
+        sb.append("        long dirty = c.dirty;\n");
+        sb.append("        long n = 0;\n");
+        sb.append("        int status;\n\n");
+        sb.append("        loop:\n");
+        sb.append("        while (true) {\n");
+        sb.append("            switch (pc) {\n");
+
+        for (int leader = 0; leader < SLOTS; leader++) {
+            if (!leaders[leader] || (codeSlots >>> leader & 1L) == 0) {
+                continue;
+            }
+
+            // Collect the block.
+            final List<Integer> block = new ArrayList<Integer>();
+            int slot = leader;
+            while (true) {
+                final int insn = code[slot];
+                block.add(slot);
+                slot = (slot + 1) % SLOTS;
+                if (isTerminator(insn) || leaders[slot]
+                    || opcode(insn) == Computer.STORE
+                    && overlaps(codeSlots, xy(insn))) {
+                    break;
+                }
+            }
+            final int length = block.size();
+
+            sb.append("            case ").append(4 * leader).append(":\n");
+            sb.append("                if (maxSteps - n < ").append(length)
+                .append(") {\n");
+            sb.append("                    status = BAIL;\n");
+            sb.append("                    break loop;\n");
+            sb.append("                }\n");
+            sb.append("                n += ").append(length).append(";\n");
+
+            for (int k = 0; k < length; k++) {
+                final int s = block.get(k);
+                final int insn = code[s];
+                final int next = 4 * ((s + 1) % SLOTS);
+                final String r = reg(insn, 0);
+                final String rs = reg(insn, 1);
+                final String rt = reg(insn, 2);
+                final int xy = xy(insn);
+                final String i = "                ";
+                final String modified = i + "    pc = " + next + ";\n"
+                    + i + "    n -= " + (length - k - 1) + ";\n"
+                    + i + "    status = MODIFIED;\n"
+                    + i + "    break loop;\n";
+
+                switch (opcode(insn)) {
+                case Computer.HALT:
+                    sb.append(i).append("pc = ").append(next).append(";\n");
+                    sb.append(i).append("status = Computer.HALTED;\n");
+                    sb.append(i).append("break loop;\n");
+                    break;
+                case Computer.LOAD:
+                    sb.append(i).append(r).append(" = Computer.getWord(m, ")
+                        .append(xy).append(");\n");
+                    break;
+                case Computer.LOADC:
+                    sb.append(i).append(r).append(" = ").append((byte) xy)
+                        .append(";\n");
+                    break;
+                case Computer.LOADR:
+                    sb.append(i).append(r).append(" = Computer.getWord(m, ")
+                        .append(rs).append(" & 0xff);\n");
+                    break;
+                case Computer.STORE:
+                    sb.append(i).append("dirty |= Computer.store(m, ")
+                        .append(xy).append(", ").append(r).append(");\n");
+                    if (overlaps(codeSlots, xy)) {
+                        sb.append(i).append("{\n").append(modified)
+                            .append(i).append("}\n");
+                    }
+                    break;
+                case Computer.STORER:
+                    sb.append(i).append("dirty |= Computer.store(m, ")
+                        .append(rs).append(" & 0xff, ").append(r)
+                        .append(");\n");
+                    sb.append(i).append("if ((dirty & ").append(slots)
+                        .append(") != 0) {\n")
+                        .append(modified)
+                        .append(i).append("}\n");
+                    break;
+                case Computer.MOVE:
+                    sb.append(i).append(r).append(" = ").append(rs)
+                        .append(";\n");
+                    break;
+                case Computer.ADD:
+                    binary(sb, i, r, "(byte) (", rs, " + ", rt, ")");
+                    break;
+                case Computer.ADDC:
+                    sb.append(i).append(r).append(" = (byte) (").append(r)
+                        .append(" + ").append(xy).append(");\n");
+                    break;
+                case Computer.MUL:
+                    binary(sb, i, r, "(byte) (", rs, " * ", rt, ")");
+                    break;
+                case Computer.SUB:
+                    binary(sb, i, r, "(byte) (", rs, " - ", rt, ")");
+                    break;
+                case Computer.SHIFT:
+                    binary(sb, i, r, "Computer.shift(", rs, ", ", rt, ")");
+                    break;
+                case Computer.AND:
+                    binary(sb, i, r, "", rs, " & ", rt, "");
+                    break;
+                case Computer.OR:
+                    binary(sb, i, r, "", rs, " | ", rt, "");
+                    break;
+                case Computer.XOR:
+                    binary(sb, i, r, "", rs, " ^ ", rt, "");
+                    break;
+                case Computer.JUMPE:
+                    jump(sb, i, r, " == ", xy, next);
+                    break;
+                case Computer.JUMPN:
+                    jump(sb, i, r, " != ", xy, next);
+                    break;
+                case Computer.JUMPL:
+                    jump(sb, i, r, " < ", xy, next);
+                    break;
+                case Computer.JUMPLE:
+                    jump(sb, i, r, " <= ", xy, next);
+                    break;
+                case Computer.JUMP:
+                    sb.append(i).append("pc = ").append(xy).append(";\n");
+                    sb.append(i).append("continue loop;\n");
+                    break;
+                default: // NOOP
+                    break;
+                }
+            }
+
+            // Fall through to the next block.
+            final int last = code[block.get(length - 1)];
+            if (!isTerminator(last)
+                && !(opcode(last) == Computer.STORE
+                     && overlaps(codeSlots, xy(last)))) {
+                sb.append("                pc = ").append(4 * slot)
+                    .append(";\n");
+                sb.append("                continue loop;\n");
+            }
+        }
+
+        sb.append("            default:\n");
+        sb.append("                status = BAIL;\n");
+        sb.append("                break loop;\n");
+        sb.append("            }\n");
+        sb.append("        }\n\n");
+        for (int i = 0; i < Computer.REGISTERS; i++) {
+            sb.append("        reg[").append(i).append("] = r").append(i)
+                .append(";\n");
+        }
+        sb.append("        c.pc = pc;\n");
+        sb.append("        c.dirty = dirty;\n");
+        sb.append("        c.steps += n;\n");
+        sb.append("        return status;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Appends an assignment of a binary operation to a register.
+     *
+     * @param sb Destination.
+     * @param indent Indentation.
+     * @param r Destination register.
+     * @param prefix Prefix of expression.
+     * @param rs First operand.
+     * @param operator Operator.
+     * @param rt Second operand.
+     * @param postfix Postfix of expression.
+     */
+    private static void binary(final StringBuilder sb,
+                               final String indent,
+                               final String r,
+                               final String prefix,
+                               final String rs,
+                               final String operator,
+                               final String rt,
+                               final String postfix) {
+        sb.append(indent).append(r).append(" = ").append(prefix).append(rs)
+            .append(operator).append(rt).append(postfix).append(";\n");
+    }
+
+    /**
+     * Appends a conditional jump comparing a register with r0.
+     *
+     * @param sb Destination.
+     * @param indent Indentation.
+     * @param r Compared register.
+     * @param operator Comparison operator.
+     * @param target Address jumped to if the comparison holds.
+     * @param next Address of the next instruction.
+     */
+    private static void jump(final StringBuilder sb,
+                             final String indent,
+                             final String r,
+                             final String operator,
+                             final int target,
+                             final int next) {
+        sb.append(indent).append("pc = ").append(r).append(operator)
+            .append("r0 ? ").append(target).append(" : ").append(next)
+            .append(";\n");
+        sb.append(indent).append("continue loop;\n");
+    }
+
+    /**
+     * Source of the generated class held in memory.
+     */
+    static final class Source extends SimpleJavaFileObject {
+
+        /**
+         * Source code.
+         */
+        final String source;
+
+        /**
+         * Creates a source file.
+         *
+         * @param source Source code.
+         */
+        Source(final String source) {
+            super(URI.create("string:///se/kth/csc/nic/" + CLASS_NAME
+                             + Kind.SOURCE.extension),
+                  Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(final boolean ignoreErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * Class file of the generated class held in memory.
+     */
+    static final class ClassFile extends SimpleJavaFileObject {
+
+        /**
+         * Bytes of the class file.
+         */
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        /**
+         * Creates a class file.
+         *
+         * @param name Binary name of class.
+         */
+        ClassFile(final String name) {
+            super(URI.create("bytes:///" + name.replace('.', '/')
+                             + Kind.CLASS.extension),
+                  Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return baos;
+        }
+    }
+
+    /**
+     * Compiles the given source and returns the class file.
+     *
+     * @param source Source of the generated class.
+     * @return Bytes of the class file or null if the source could not
+     * be compiled.
+     */
+    static byte[] compile(final String source) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return null;
+        }
+
+        // The generated class refers to this package, which may not
+        // be on the class path of the virtual machine, and then the
+        // compilation below fails.
+        String classPath = System.getProperty("java.class.path");
+        final CodeSource codeSource =
+            Computer.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            try {
+                final String location =
+                    Paths.get(codeSource.getLocation().toURI()).toString();
+                classPath = location + File.pathSeparator + classPath;
+            } catch (final URISyntaxException use) {
+                LOGGER.log(Level.WARNING, "Invalid location of NIC!", use);
+            } catch (final FileSystemNotFoundException fsnfe) {
+                LOGGER.log(Level.WARNING, "NIC is not in a file!", fsnfe);
+            } catch (final IllegalArgumentException iae) {
+                LOGGER.log(Level.WARNING, "NIC is not in a file!", iae);
+            }
+        }
+
+        final List<ClassFile> classFiles = new ArrayList<ClassFile>();
+        final DiagnosticCollector<JavaFileObject> diagnostics =
+            new DiagnosticCollector<JavaFileObject>();
+        final List<String> options =
+            Arrays.asList("-classpath", classPath, "-g:none", "-proc:none",
+                          "-nowarn");
+        Boolean success = null;
+        try (StandardJavaFileManager sfm =
+                 compiler.getStandardFileManager(null, null, null)) {
+            final ForwardingJavaFileManager<StandardJavaFileManager> fm =
+                new ForwardingJavaFileManager<StandardJavaFileManager>(sfm) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(
+                        final Location location,
+                        final String className,
+                        final JavaFileObject.Kind kind,
+                        final FileObject sibling) {
+                        final ClassFile classFile = new ClassFile(className);
+                        classFiles.add(classFile);
+                        return classFile;
+                    }
+                };
+            success = compiler.getTask(null, fm, diagnostics, options, null,
+                                       Arrays.asList(new Source(source)))
+                .call();
+        } catch (final IOException ioe) {
+
+            // Only closing the file manager throws, and the results
+            // are complete by then.
+            LOGGER.log(Level.WARNING, "Unable to close file manager!", ioe);
+        }
+
+        if (success == null || !success || classFiles.size() != 1) {
+            LOGGER.log(Level.WARNING, "Unable to compile program! ("
+                       + diagnostics.getDiagnostics() + ")");
+            return null;
+        }
+        return classFiles.get(0).baos.toByteArray();
+    }
+
+    /**
+     * Compiles the given program.
+     *
+     * @param code Decoded instructions of the program.
+     * @return Compiled program or null if no compiler is available
+     * or compilation failed.
+     */
+    static Compiled compile(final int[] code) {
+        final boolean[] leaders = new boolean[SLOTS];
+        final long codeSlots = reachable(code, leaders);
+
+        final byte[] bytes = compile(generate(code, codeSlots, leaders));
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            final Class<?> c =
+                MethodHandles.lookup().defineHiddenClass(bytes, true)
+                .lookupClass();
+            final Compiled compiled =
+                (Compiled) c.getDeclaredConstructor().newInstance();
+            compiled.codeSlots = codeSlots;
+            return compiled;
+        } catch (final ReflectiveOperationException roe) {
+            LOGGER.log(Level.WARNING, "Unable to load compiled program!", roe);
+            return null;
+        }
+    }
+}
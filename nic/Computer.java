@@ -0,0 +1,542 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.util.Arrays;
+
+/**
+ * Interpreter of the Nilsson Instructional Computer (NIC).
+ *
+ * <p>
+ *
+ * The computer has 16 registers holding signed bytes and a memory of
+ * 256 cells, each holding a hexadecimal digit. An instruction
+ * occupies four cells at an address divisible by four and a word
+ * occupies two cells. The executable produced by the assembler is a
+ * magic word followed by the image of the memory.
+ *
+ * <p>
+ *
+ * Instructions are decoded once into a packed integer per slot of
+ * four cells by {@link Program}, which is shared by all computers
+ * running it. A computer only holds its memory and registers, and
+ * notes the slots it stores into, which are decoded from its memory
+ * when they are executed. The packed integer holds the opcode in the
+ * lowest byte, the first, second, and third register in the
+ * following nibbles, and the address or constant in the highest
+ * byte. Registers are normalized while decoding, so the first
+ * register is always the destination.
+ */
+public final class Computer {
+
+    /**
+     * Number of cells of memory.
+     */
+    public final static int MEMORY_SIZE = 256;
+
+    /**
+     * Number of registers.
+     */
+    public final static int REGISTERS = 16;
+
+    /**
+     * Magic word at the start of every executable.
+     */
+    public final static String MAGIC = "1f1f1f1f";
+
+    /**
+     * Decoded opcodes. The jump operator is split by its condition,
+     * and the unconditional jump and no operation are special cases
+     * of comparing the first register with itself.
+     */
+    final static int HALT = 0;
+    final static int LOAD = 1;
+    final static int LOADC = 2;
+    final static int LOADR = 3;
+    final static int STORE = 4;
+    final static int STORER = 5;
+    final static int MOVE = 6;
+    final static int ADD = 7;
+    final static int ADDC = 8;
+    final static int MUL = 9;
+    final static int SUB = 10;
+    final static int SHIFT = 11;
+    final static int AND = 12;
+    final static int OR = 13;
+    final static int XOR = 14;
+    final static int JUMPE = 15;
+    final static int JUMPN = 16;
+    final static int JUMPL = 17;
+    final static int JUMPLE = 18;
+    final static int JUMP = 19;
+    final static int NOOP = 20;
+
+    /**
+     * Status of a computer that is ready to run.
+     */
+    public final static int READY = 0;
+
+    /**
+     * Status of a computer that executed a halt instruction.
+     */
+    public final static int HALTED = 1;
+
+    /**
+     * Status of a computer that ran out of steps.
+     */
+    public final static int STEP_LIMIT = 2;
+
+    /**
+     * Program run by the computer.
+     */
+    final Program program;
+
+    /**
+     * Memory, one hexadecimal digit per cell.
+     */
+    final byte[] memory;
+
+    /**
+     * Registers holding signed bytes.
+     */
+    final int[] registers;
+
+    /**
+     * Program counter.
+     */
+    int pc;
+
+    /**
+     * Status of the computer.
+     */
+    int status;
+
+    /**
+     * Number of instructions executed since the last reset.
+     */
+    long steps;
+
+    /**
+     * Slots stored into since the last reset, one bit per slot. The
+     * instructions of these slots are decoded from the memory.
+     */
+    long dirty;
+
+    /**
+     * Creates a computer loaded with the given executable.
+     *
+     * @param executable Executable produced by the assembler.
+     * @throws IllegalArgumentException If the executable is invalid.
+     */
+    public Computer(final String executable) {
+        this(new Program(executable));
+    }
+
+    /**
+     * Creates a computer loaded with the given program.
+     *
+     * @param program Program.
+     */
+    public Computer(final Program program) {
+        this.program = program;
+        this.memory = new byte[MEMORY_SIZE];
+        this.registers = new int[REGISTERS];
+        reset();
+    }
+
+    /**
+     * Returns the memory image of the given executable.
+     *
+     * @param executable Executable produced by the assembler.
+     * @return Memory image.
+     * @throws IllegalArgumentException If the executable is invalid.
+     */
+    static byte[] load(final String executable) {
+        final String s = executable.trim();
+        if (!s.startsWith(MAGIC)) {
+            throw new IllegalArgumentException("Missing magic word!");
+        }
+        final int length = s.length() - MAGIC.length();
+        if (length > MEMORY_SIZE) {
+            final String e =
+                String.format("Executable is too long! (%d > %d)",
+                              length, MEMORY_SIZE);
+            throw new IllegalArgumentException(e);
+        }
+
+        final byte[] image = new byte[MEMORY_SIZE];
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(MAGIC.length() + i);
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                final String e =
+                    String.format("Invalid hexadecimal digit! (%c)", c);
+                throw new IllegalArgumentException(e);
+            }
+            image[i] = (byte) digit;
+        }
+        return image;
+    }
+
+    /**
+     * Packs the components of a decoded instruction.
+     *
+     * @param opcode Decoded opcode.
+     * @param r First register.
+     * @param s Second register.
+     * @param t Third register.
+     * @param xy Address or constant.
+     * @return Packed instruction.
+     */
+    static int pack(final int opcode,
+                    final int r,
+                    final int s,
+                    final int t,
+                    final int xy) {
+        return opcode | r << 8 | s << 12 | t << 16 | xy << 24;
+    }
+
+    /**
+     * Decodes the instruction at the given address.
+     *
+     * @param memory Memory.
+     * @param address Address of instruction, divisible by four.
+     * @return Packed instruction.
+     */
+    static int decode(final byte[] memory, final int address) {
+        final int op = memory[address];
+        final int r = memory[address + 1];
+        final int s = memory[address + 2];
+        final int t = memory[address + 3];
+        final int xy = s << 4 | t;
+
+        switch (op) {
+        case 0x0:
+            return pack(HALT, 0, 0, 0, 0);
+        case 0x1:
+            return pack(LOAD, r, 0, 0, xy);
+        case 0x2:
+            return pack(LOADC, r, 0, 0, xy);
+        case 0x3:
+            return pack(LOADR, s, t, 0, 0);
+        case 0x4:
+            return pack(STORE, r, 0, 0, xy);
+        case 0x5:
+            return pack(STORER, s, t, 0, 0);
+        case 0x6:
+            return pack(MOVE, s, t, 0, 0);
+        case 0x8:
+            return pack(ADDC, r, 0, 0, xy);
+        case 0xf:
+
+            // The condition is encoded in the two lowest bits of
+            // the address, which is divisible by four.
+            final int target = xy & 0xfc;
+            switch (xy & 3) {
+            case 0:
+                return pack(r == 0 ? JUMP : JUMPE, r, 0, 0, target);
+            case 1:
+                return pack(r == 0 ? NOOP : JUMPN, r, 0, 0, target);
+            case 2:
+                return pack(JUMPL, r, 0, 0, target);
+            default:
+                return pack(JUMPLE, r, 0, 0, target);
+            }
+        default:
+
+            // Operators taking three registers share their digits
+            // with the decoded opcodes.
+            return pack(op, r, s, t, 0);
+        }
+    }
+
+    /**
+     * Restores the memory image, clears the registers, and sets the
+     * program counter to zero.
+     */
+    public void reset() {
+        System.arraycopy(program.image, 0, memory, 0, MEMORY_SIZE);
+        Arrays.fill(registers, 0);
+        pc = 0;
+        status = READY;
+        steps = 0;
+        dirty = 0;
+    }
+
+    /**
+     * Compiles the program of this computer.
+     *
+     * @return True if the program was compiled, and false if no Java
+     * compiler is available.
+     * @see Program#compile()
+     */
+    public boolean compile() {
+        return program.compile();
+    }
+
+    /**
+     * Returns the value of a register as a signed byte.
+     *
+     * @param index Index of register.
+     * @return Value of register.
+     */
+    public int getRegister(final int index) {
+        return registers[index];
+    }
+
+    /**
+     * Sets the value of a register. Only the lowest byte is used.
+     *
+     * @param index Index of register.
+     * @param value Value of register.
+     */
+    public void setRegister(final int index, final int value) {
+        registers[index] = (byte) value;
+    }
+
+    /**
+     * Returns the word at the given address as a signed byte.
+     *
+     * @param address Address of word.
+     * @return Value of word.
+     */
+    public int getWord(final int address) {
+        final int a = address & 0xff;
+        return (byte) (memory[a] << 4 | memory[(a + 1) & 0xff]);
+    }
+
+    /**
+     * Stores a word at the given address. Only the lowest byte is
+     * used.
+     *
+     * @param address Address of word.
+     * @param value Value of word.
+     */
+    public void setWord(final int address, final int value) {
+        dirty |= store(memory, address & 0xff, value);
+    }
+
+    /**
+     * Returns the program counter.
+     *
+     * @return Program counter.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Returns the status of the computer.
+     *
+     * @return {@link #READY}, {@link #HALTED}, or {@link #STEP_LIMIT}.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the number of instructions executed since the last
+     * reset.
+     *
+     * @return Number of instructions executed.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Stores a word and returns the slots it overlaps.
+     *
+     * @param memory Memory.
+     * @param address Address of word.
+     * @param value Value of word.
+     * @return Slots overlapped by the word, one bit per slot.
+     */
+    static long store(final byte[] memory,
+                      final int address,
+                      final int value) {
+        final int next = (address + 1) & 0xff;
+        memory[address] = (byte) (value >> 4 & 0xf);
+        memory[next] = (byte) (value & 0xf);
+        return 1L << (address >> 2) | 1L << (next >> 2);
+    }
+
+    /**
+     * Shifts a signed byte left by the given number of bits, or right
+     * with sign extension if the number is negative.
+     *
+     * @param s Value to shift.
+     * @param t Signed number of bits.
+     * @return Shifted value as a signed byte.
+     */
+    static int shift(final int s, final int t) {
+        if (t >= 0) {
+            return t >= 8 ? 0 : (byte) (s << t);
+        } else {
+            return s >> Math.min(-t, 7);
+        }
+    }
+
+    /**
+     * Runs the computer until it halts or the given number of
+     * instructions is executed. A halted computer continues with the
+     * instruction following the halt instruction.
+     *
+     * @param maxSteps Maximal number of instructions to execute.
+     * @return {@link #HALTED} or {@link #STEP_LIMIT}.
+     */
+    public int run(final long maxSteps) {
+        final Compiled compiled = program.compiled();
+        if (compiled == null) {
+            return interpret(maxSteps);
+        }
+
+        long remaining = maxSteps;
+        while ((dirty & compiled.codeSlots) == 0) {
+            final long before = steps;
+            final int s = compiled.run(this, remaining);
+            remaining -= steps - before;
+
+            if (s == HALTED) {
+                status = HALTED;
+                return status;
+            } else if (s == Compiled.MODIFIED) {
+                break;
+            } else if (remaining == 0) {
+                status = STEP_LIMIT;
+                return status;
+            }
+
+            // Interpret a single instruction, which does not start a
+            // basic block.
+            remaining--;
+            if (interpret(1) == HALTED) {
+                return status;
+            }
+        }
+
+        // The program stored into its own code.
+        return interpret(remaining);
+    }
+
+    /**
+     * Interprets instructions until the computer halts or the given
+     * number of instructions is executed.
+     *
+     * @param maxSteps Maximal number of instructions to execute.
+     * @return {@link #HALTED} or {@link #STEP_LIMIT}.
+     */
+    int interpret(final long maxSteps) {
+        final byte[] memory = this.memory;
+        final int[] code = program.code;
+        final int[] reg = this.registers;
+        long dirty = this.dirty;
+        int pc = this.pc;
+        long n = 0;
+        int status = STEP_LIMIT;
+
+        loop:
+        while (n < maxSteps) {
+            final int slot = pc >> 2;
+            final int insn = (dirty >>> slot & 1L) == 0
+                ? code[slot] : decode(memory, pc);
+            final int r = insn >> 8 & 0xf;
+            pc = (pc + 4) & 0xff;
+            n++;
+
+            switch (insn & 0xff) {
+            case HALT:
+                status = HALTED;
+                break loop;
+            case LOAD:
+                reg[r] = getWord(memory, insn >>> 24);
+                break;
+            case LOADC:
+                reg[r] = (byte) (insn >>> 24);
+                break;
+            case LOADR:
+                reg[r] = getWord(memory, reg[insn >> 12 & 0xf] & 0xff);
+                break;
+            case STORE:
+                dirty |= store(memory, insn >>> 24, reg[r]);
+                break;
+            case STORER:
+                dirty |= store(memory, reg[insn >> 12 & 0xf] & 0xff, reg[r]);
+                break;
+            case MOVE:
+                reg[r] = reg[insn >> 12 & 0xf];
+                break;
+            case ADD:
+                reg[r] = (byte) (reg[insn >> 12 & 0xf] + reg[insn >> 16 & 0xf]);
+                break;
+            case ADDC:
+                reg[r] = (byte) (reg[r] + (insn >>> 24));
+                break;
+            case MUL:
+                reg[r] = (byte) (reg[insn >> 12 & 0xf] * reg[insn >> 16 & 0xf]);
+                break;
+            case SUB:
+                reg[r] = (byte) (reg[insn >> 12 & 0xf] - reg[insn >> 16 & 0xf]);
+                break;
+            case SHIFT:
+                reg[r] = shift(reg[insn >> 12 & 0xf], reg[insn >> 16 & 0xf]);
+                break;
+            case AND:
+                reg[r] = reg[insn >> 12 & 0xf] & reg[insn >> 16 & 0xf];
+                break;
+            case OR:
+                reg[r] = reg[insn >> 12 & 0xf] | reg[insn >> 16 & 0xf];
+                break;
+            case XOR:
+                reg[r] = reg[insn >> 12 & 0xf] ^ reg[insn >> 16 & 0xf];
+                break;
+            case JUMPE:
+                if (reg[r] == reg[0]) {
+                    pc = insn >>> 24;
+                }
+                break;
+            case JUMPN:
+                if (reg[r] != reg[0]) {
+                    pc = insn >>> 24;
+                }
+                break;
+            case JUMPL:
+                if (reg[r] < reg[0]) {
+                    pc = insn >>> 24;
+                }
+                break;
+            case JUMPLE:
+                if (reg[r] <= reg[0]) {
+                    pc = insn >>> 24;
+                }
+                break;
+            case JUMP:
+                pc = insn >>> 24;
+                break;
+            default: // NOOP
+                break;
+            }
+        }
+
+        this.pc = pc;
+        this.dirty = dirty;
+        this.steps += n;
+        this.status = status;
+        return status;
+    }
+
+    /**
+     * Returns the word at the given address as a signed byte.
+     *
+     * @param memory Memory.
+     * @param address Address of word.
+     * @return Value of word.
+     */
+    static int getWord(final byte[] memory, final int address) {
+        return (byte) (memory[address] << 4 | memory[(address + 1) & 0xff]);
+    }
+}
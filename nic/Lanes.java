@@ -0,0 +1,617 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+import java.util.Arrays;
+
+/**
+ * Runs many instances of the same program in lock-step, e.g., one per
+ * input vector of a test.
+ *
+ * <p>
+ *
+ * Each instance is a lane. Registers and memory are stored
+ * column-wise, i.e., a register or a memory cell is an array holding
+ * its value in every lane, so an instruction is decoded and
+ * dispatched once and then applied to all lanes that share the
+ * program counter in a tight loop over the columns. As long as the
+ * lanes that are still running agree on the program counter, they
+ * run in lock-step without deciding which lanes execute each
+ * instruction, and if these are all lanes, then the loops run over
+ * the columns without indirection and are vectorized by the virtual
+ * machine.
+ *
+ * <p>
+ *
+ * When the lanes diverge at a conditional jump, the lanes with the
+ * lowest program counter are run first, which lets lanes skipping
+ * forward wait for the others to catch up, and the lanes run in
+ * lock-step again once their program counters agree. A lane that
+ * stores into an instruction runs that instruction on its own,
+ * decoded from its own memory.
+ *
+ * <p>
+ *
+ * Every lane behaves exactly like a {@link Computer} running the same
+ * program.
+ */
+public final class Lanes {
+
+    /**
+     * Program run by the lanes.
+     */
+    final Program program;
+
+    /**
+     * Number of lanes.
+     */
+    final int size;
+
+    /**
+     * Memory indexed by address and lane.
+     */
+    final byte[][] memory;
+
+    /**
+     * Registers indexed by register and lane.
+     */
+    final int[][] registers;
+
+    /**
+     * Program counters of the lanes.
+     */
+    final int[] pc;
+
+    /**
+     * Statuses of the lanes.
+     */
+    final int[] status;
+
+    /**
+     * Numbers of instructions executed by the lanes since the last
+     * reset.
+     */
+    final long[] steps;
+
+    /**
+     * Slots stored into by the lanes, one bit per slot.
+     */
+    final long[] dirty;
+
+    /**
+     * Lanes that have not halted or reached their step limit during
+     * the current run.
+     */
+    private final int[] active;
+
+    /**
+     * Lanes executing the current instruction.
+     */
+    private final int[] group;
+
+    /**
+     * Step limits of the lanes during the current run.
+     */
+    private final long[] limit;
+
+    /**
+     * Scratch memory from which an instruction stored into by a lane
+     * is decoded.
+     */
+    private final byte[] cells;
+
+    /**
+     * Creates lanes running the given program.
+     *
+     * @param program Program.
+     * @param size Number of lanes.
+     */
+    public Lanes(final Program program, final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Non-positive number of "
+                                               + "lanes! (" + size + ")");
+        }
+        this.program = program;
+        this.size = size;
+        this.memory = new byte[Computer.MEMORY_SIZE][size];
+        this.registers = new int[Computer.REGISTERS][size];
+        this.pc = new int[size];
+        this.status = new int[size];
+        this.steps = new long[size];
+        this.dirty = new long[size];
+        this.active = new int[size];
+        this.group = new int[size];
+        this.limit = new long[size];
+        this.cells = new byte[Computer.MEMORY_SIZE];
+        reset();
+    }
+
+    /**
+     * Returns the number of lanes.
+     *
+     * @return Number of lanes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Restores the memory image, clears the registers, and sets the
+     * program counter to zero in all lanes.
+     */
+    public void reset() {
+        for (int address = 0; address < Computer.MEMORY_SIZE; address++) {
+            Arrays.fill(memory[address], program.image[address]);
+        }
+        for (int r = 0; r < Computer.REGISTERS; r++) {
+            Arrays.fill(registers[r], 0);
+        }
+        Arrays.fill(pc, 0);
+        Arrays.fill(status, Computer.READY);
+        Arrays.fill(steps, 0);
+        Arrays.fill(dirty, 0);
+    }
+
+    /**
+     * Returns the value of a register of a lane as a signed byte.
+     *
+     * @param lane Lane.
+     * @param index Index of register.
+     * @return Value of register.
+     */
+    public int getRegister(final int lane, final int index) {
+        return registers[index][lane];
+    }
+
+    /**
+     * Sets the value of a register of a lane.
+     *
+     * @param lane Lane.
+     * @param index Index of register.
+     * @param value Value, of which the least significant byte is used.
+     */
+    public void setRegister(final int lane, final int index, final int value) {
+        registers[index][lane] = (byte) value;
+    }
+
+    /**
+     * Returns the word at the given address of a lane as a signed
+     * byte.
+     *
+     * @param lane Lane.
+     * @param address Address of word.
+     * @return Value of word.
+     */
+    public int getWord(final int lane, final int address) {
+        final int a = address & 0xff;
+        return (byte) (memory[a][lane] << 4 | memory[(a + 1) & 0xff][lane]);
+    }
+
+    /**
+     * Sets the word at the given address of a lane.
+     *
+     * @param lane Lane.
+     * @param address Address of word.
+     * @param value Value, of which the least significant byte is used.
+     */
+    public void setWord(final int lane, final int address, final int value) {
+        final int a = address & 0xff;
+        final int next = (a + 1) & 0xff;
+        memory[a][lane] = (byte) (value >> 4 & 0xf);
+        memory[next][lane] = (byte) (value & 0xf);
+        dirty[lane] |= 1L << (a >> 2) | 1L << (next >> 2);
+    }
+
+    /**
+     * Returns the program counter of a lane.
+     *
+     * @param lane Lane.
+     * @return Program counter.
+     */
+    public int getPC(final int lane) {
+        return pc[lane];
+    }
+
+    /**
+     * Returns the status of a lane.
+     *
+     * @param lane Lane.
+     * @return Status of lane.
+     */
+    public int getStatus(final int lane) {
+        return status[lane];
+    }
+
+    /**
+     * Returns the number of instructions executed by a lane since the
+     * last reset.
+     *
+     * @param lane Lane.
+     * @return Number of instructions executed.
+     */
+    public long getSteps(final int lane) {
+        return steps[lane];
+    }
+
+    /**
+     * Runs every lane until it halts or the given number of
+     * instructions is executed in the lane. A halted lane continues
+     * with the instruction following the halt instruction.
+     *
+     * @param maxSteps Maximal number of instructions executed by a
+     * lane.
+     * @return Number of lanes that halted.
+     */
+    public int run(final long maxSteps) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            limit[i] = steps[i] + maxSteps;
+            if (maxSteps > 0) {
+                status[i] = Computer.READY;
+                active[count++] = i;
+            } else {
+                status[i] = Computer.STEP_LIMIT;
+            }
+        }
+
+        while (count > 0) {
+
+            // Find the lowest program counter and determine if all
+            // lanes agree on it.
+            final int first = pc[active[0]];
+            int lowest = first;
+            boolean agree = true;
+            long anyDirty = 0;
+            for (int k = 0; k < count; k++) {
+                final int i = active[k];
+                final int p = pc[i];
+                if (p != first) {
+                    agree = false;
+                    lowest = Math.min(lowest, p);
+                }
+                anyDirty |= dirty[i];
+            }
+
+            // The active lanes are all lanes in order if none is
+            // retired, and the loops are then free of indirection.
+            if (agree && (anyDirty >>> (first >> 2) & 1L) == 0) {
+                runAll(first, anyDirty, count == size ? null : active, count);
+            } else {
+                runGroup(lowest, count);
+            }
+
+            // Retire lanes that halted or reached their limit.
+            int remaining = 0;
+            for (int k = 0; k < count; k++) {
+                final int i = active[k];
+                if (status[i] == Computer.READY) {
+                    if (steps[i] < limit[i]) {
+                        active[remaining++] = i;
+                    } else {
+                        status[i] = Computer.STEP_LIMIT;
+                    }
+                }
+            }
+            count = remaining;
+        }
+
+        int halted = 0;
+        for (int i = 0; i < size; i++) {
+            if (status[i] == Computer.HALTED) {
+                halted++;
+            }
+        }
+        return halted;
+    }
+
+    /**
+     * Runs the given lanes in lock-step from the given program counter
+     * until they diverge, halt, reach an instruction that one of them
+     * stored into, or the lane closest to its limit reaches it.
+     *
+     * @param start Program counter of the lanes.
+     * @param anyDirty Slots stored into by any of the lanes.
+     * @param lanes Lanes, or null for all lanes.
+     * @param count Number of lanes.
+     */
+    private void runAll(final int start,
+                        final long anyDirty,
+                        final int[] lanes,
+                        final int count) {
+        final int[] code = program.code;
+        final int[] reg0 = registers[0];
+
+        long budget = Long.MAX_VALUE;
+        for (int k = 0; k < count; k++) {
+            final int i = lanes == null ? k : lanes[k];
+            budget = Math.min(budget, limit[i] - steps[i]);
+        }
+
+        long stored = anyDirty;
+        int pc = start;
+        long n = 0;
+        boolean diverged = false;
+
+        loop:
+        while (n < budget && (stored >>> (pc >> 2) & 1L) == 0) {
+            final int insn = code[pc >> 2];
+            final int xy = insn >>> 24;
+            final int next = (pc + 4) & 0xff;
+            n++;
+
+            switch (insn & 0xff) {
+            case Computer.HALT:
+                for (int k = 0; k < count; k++) {
+                    status[lanes == null ? k : lanes[k]] = Computer.HALTED;
+                }
+                pc = next;
+                break loop;
+            case Computer.JUMPE:
+            case Computer.JUMPN:
+            case Computer.JUMPL:
+            case Computer.JUMPLE:
+                final int taken = jump(insn, registers[insn >> 8 & 0xf], reg0,
+                                       lanes, count, next);
+                if (taken == count) {
+                    pc = xy;
+                } else if (taken == 0) {
+                    pc = next;
+                } else {
+                    diverged = true;
+                    break loop;
+                }
+                break;
+            case Computer.JUMP:
+                pc = xy;
+                break;
+            default:
+                stored |= execute(insn, lanes, count);
+                pc = next;
+                break;
+            }
+        }
+
+        for (int k = 0; k < count; k++) {
+            final int i = lanes == null ? k : lanes[k];
+            if (!diverged) {
+                this.pc[i] = pc;
+            }
+            steps[i] += n;
+        }
+    }
+
+    /**
+     * Executes a single instruction in the lanes with the given
+     * program counter. If some of these lanes stored into the
+     * instruction, then only one of them executes its own
+     * instruction.
+     *
+     * @param pc Program counter.
+     * @param count Number of active lanes.
+     */
+    private void runGroup(final int pc, final int count) {
+        final int slot = pc >> 2;
+        int g = 0;
+        int modified = -1;
+        for (int k = 0; k < count; k++) {
+            final int i = active[k];
+            if (this.pc[i] == pc) {
+                if ((dirty[i] >>> slot & 1L) == 0) {
+                    group[g++] = i;
+                } else if (modified < 0) {
+                    modified = i;
+                }
+            }
+        }
+
+        int insn;
+        if (g > 0) {
+            insn = program.code[slot];
+        } else {
+            for (int c = 0; c < 4; c++) {
+                cells[pc + c] = memory[pc + c][modified];
+            }
+            insn = Computer.decode(cells, pc);
+            group[g++] = modified;
+        }
+
+        final int next = (pc + 4) & 0xff;
+        for (int k = 0; k < g; k++) {
+            final int i = group[k];
+            this.pc[i] = next;
+            steps[i]++;
+        }
+
+        switch (insn & 0xff) {
+        case Computer.HALT:
+            for (int k = 0; k < g; k++) {
+                status[group[k]] = Computer.HALTED;
+            }
+            break;
+        case Computer.JUMPE:
+        case Computer.JUMPN:
+        case Computer.JUMPL:
+        case Computer.JUMPLE:
+            jump(insn, registers[insn >> 8 & 0xf], registers[0],
+                 group, g, next);
+            break;
+        case Computer.JUMP:
+            for (int k = 0; k < g; k++) {
+                this.pc[group[k]] = insn >>> 24;
+            }
+            break;
+        default:
+            execute(insn, group, g);
+            break;
+        }
+    }
+
+    /**
+     * Executes a conditional jump in the given lanes and sets their
+     * program counters.
+     *
+     * @param insn Packed instruction.
+     * @param r Register compared with register zero.
+     * @param reg0 Register zero.
+     * @param lanes Lanes, or null for all lanes.
+     * @param count Number of lanes.
+     * @param next Address of the following instruction.
+     * @return Number of lanes that jumped.
+     */
+    private int jump(final int insn,
+                     final int[] r,
+                     final int[] reg0,
+                     final int[] lanes,
+                     final int count,
+                     final int next) {
+        final int op = insn & 0xff;
+        final int target = insn >>> 24;
+        int taken = 0;
+        for (int k = 0; k < count; k++) {
+            final int i = lanes == null ? k : lanes[k];
+            boolean jump;
+            if (op == Computer.JUMPE) {
+                jump = r[i] == reg0[i];
+            } else if (op == Computer.JUMPN) {
+                jump = r[i] != reg0[i];
+            } else if (op == Computer.JUMPL) {
+                jump = r[i] < reg0[i];
+            } else {
+                jump = r[i] <= reg0[i];
+            }
+            if (jump) {
+                pc[i] = target;
+                taken++;
+            } else {
+                pc[i] = next;
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Executes an instruction that neither jumps nor halts in the
+     * given lanes. Lanes are given by index, or by null for all lanes,
+     * in which case the loops are free of indirection.
+     *
+     * @param insn Packed instruction.
+     * @param lanes Lanes, or null for all lanes.
+     * @param count Number of lanes.
+     * @return Slots stored into, one bit per slot.
+     */
+    private long execute(final int insn, final int[] lanes, final int count) {
+        final int[] d = registers[insn >> 8 & 0xf];
+        final int[] s = registers[insn >> 12 & 0xf];
+        final int[] t = registers[insn >> 16 & 0xf];
+        final int xy = insn >>> 24;
+
+        switch (insn & 0xff) {
+        case Computer.LOAD:
+            final byte[] high = memory[xy];
+            final byte[] low = memory[(xy + 1) & 0xff];
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) (high[i] << 4 | low[i]);
+            }
+            return 0;
+        case Computer.LOADC:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) xy;
+            }
+            return 0;
+        case Computer.LOADR:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                final int a = s[i] & 0xff;
+                d[i] = (byte) (memory[a][i] << 4 | memory[(a + 1) & 0xff][i]);
+            }
+            return 0;
+        case Computer.STORE:
+            final int next = (xy + 1) & 0xff;
+            final byte[] h = memory[xy];
+            final byte[] l = memory[next];
+            final long slots = 1L << (xy >> 2) | 1L << (next >> 2);
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                h[i] = (byte) (d[i] >> 4 & 0xf);
+                l[i] = (byte) (d[i] & 0xf);
+                dirty[i] |= slots;
+            }
+            return slots;
+        case Computer.STORER:
+            long stored = 0;
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                final int a = s[i] & 0xff;
+                final int b = (a + 1) & 0xff;
+                memory[a][i] = (byte) (d[i] >> 4 & 0xf);
+                memory[b][i] = (byte) (d[i] & 0xf);
+                final long mask = 1L << (a >> 2) | 1L << (b >> 2);
+                dirty[i] |= mask;
+                stored |= mask;
+            }
+            return stored;
+        case Computer.MOVE:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = s[i];
+            }
+            return 0;
+        case Computer.ADD:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) (s[i] + t[i]);
+            }
+            return 0;
+        case Computer.ADDC:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) (d[i] + xy);
+            }
+            return 0;
+        case Computer.MUL:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) (s[i] * t[i]);
+            }
+            return 0;
+        case Computer.SUB:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = (byte) (s[i] - t[i]);
+            }
+            return 0;
+        case Computer.SHIFT:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = Computer.shift(s[i], t[i]);
+            }
+            return 0;
+        case Computer.AND:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = s[i] & t[i];
+            }
+            return 0;
+        case Computer.OR:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = s[i] | t[i];
+            }
+            return 0;
+        case Computer.XOR:
+            for (int k = 0; k < count; k++) {
+                final int i = lanes == null ? k : lanes[k];
+                d[i] = s[i] ^ t[i];
+            }
+            return 0;
+        default: // NOOP
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 1997-2015 Stefan Nilsson, 2015-2017 Douglas Wikstrom.
+ * This file is part of the NIC/NAS software licensed under BSD
+ * License 2.0. See LICENSE file.
+ */
+
+package se.kth.csc.nic;
+
+/**
+ * Immutable executable decoded for the interpreter and optionally
+ * compiled, which may be shared by any number of computers running
+ * concurrently.
+ */
+public final class Program {
+
+    /**
+     * Memory image of the executable.
+     */
+    final byte[] image;
+
+    /**
+     * Instructions decoded from the memory image indexed by address
+     * divided by four.
+     */
+    final int[] code;
+
+    /**
+     * Compiled program or null if the program is not compiled.
+     */
+    private volatile Compiled compiled;
+
+    /**
+     * Indicates that compilation was attempted.
+     */
+    private boolean attempted;
+
+    /**
+     * Decodes the given executable.
+     *
+     * @param executable Executable produced by the assembler.
+     * @throws IllegalArgumentException If the executable is invalid.
+     */
+    public Program(final String executable) {
+        this.image = Computer.load(executable);
+        this.code = new int[Computer.MEMORY_SIZE / 4];
+        for (int slot = 0; slot < code.length; slot++) {
+            code[slot] = Computer.decode(image, 4 * slot);
+        }
+    }
+
+    /**
+     * Translates the program into a class that is compiled to machine
+     * code by the virtual machine. Computers then run the class
+     * instead of interpreting the program, unless the program stores
+     * into its own code. The results are identical to those of the
+     * interpreter. Compilation is only attempted once, so computers
+     * keep interpreting the program if it fails.
+     *
+     * @return True if the program was compiled, and false if no Java
+     * compiler is available or compilation failed.
+     */
+    public synchronized boolean compile() {
+        if (!attempted) {
+            attempted = true;
+            try {
+                compiled = Compiler.compile(code);
+            } catch (final LinkageError le) {
+
+                // The runtime lacks the java.compiler module.
+                compiled = null;
+            }
+        }
+        return compiled != null;
+    }
+
+    /**
+     * Returns the compiled program.
+     *
+     * @return Compiled program or null.
+     */
+    Compiled compiled() {
+        return compiled;
+    }
+}